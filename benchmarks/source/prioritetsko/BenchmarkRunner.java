@@ -0,0 +1,33 @@
+// Runs the JMH benchmarks with allocation and garbage collection profiling.
+// This program is executed like so:
+//     $ java -jar target/benchmarks.jar [JMH options] [benchmark regex]
+
+package prioritetsko;
+
+import java.util.Arrays;
+import org.openjdk.jmh.Main;
+
+// Accept the usual JMH command line, always adding the GC profiler. It reports
+// the bytes allocated per operation (gc.alloc.rate.norm) as well as collection
+// counts and times, which is how boxing and node allocation show up next to
+// the throughput of each queue.
+public class BenchmarkRunner {
+    private static final String[] PROFILER_ARGUMENTS = {"-prof", "gc"};
+
+    // Main entry point to this program.
+    public static void main(String[] argumentsVector) throws Exception {
+        String[] allArguments = Arrays.copyOf(
+            PROFILER_ARGUMENTS,
+            PROFILER_ARGUMENTS.length + argumentsVector.length
+        );
+        System.arraycopy(
+            argumentsVector,
+            0,
+            allArguments,
+            PROFILER_ARGUMENTS.length,
+            argumentsVector.length
+        );
+
+        Main.main(allArguments);
+    }
+}
@@ -0,0 +1,25 @@
+// Benchmarks the lock-based and elimination-combining priority queues.
+
+package prioritetsko;
+
+import org.openjdk.jmh.annotations.Param;
+
+// Measures the queues that need no agent in the forked JVM.
+public class ConcurrentQueueBenchmark extends ContendedQueueBenchmark {
+
+    @Param({"Synchronized", "EC"})
+    public String implementation;
+
+    @Override
+    // Create the chosen priority queue.
+    protected PriorityQueue<Integer> createQueue() {
+        switch (implementation) {
+            case "Synchronized":
+                return new SynchronizedPriorityQueue<Integer>();
+            case "EC":
+                return new ECPriorityQueue<Integer>();
+            default:
+                throw new IllegalArgumentException("Unknown queue: " + implementation);
+        }
+    }
+}
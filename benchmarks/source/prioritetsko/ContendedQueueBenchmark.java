@@ -0,0 +1,33 @@
+// Benchmarks for priority queues that are safe to share between threads.
+
+package prioritetsko;
+
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.GroupThreads;
+
+// Adds a producer/consumer group to the shared benchmarks: some threads only
+// insert while the others only retrieve. Both sides default to one thread; run
+// with -tg to make the groups asymmetric, for example -tg 3,1 for three
+// producers per consumer. The mixed benchmark takes its thread count from -t.
+// The group sets its own push/pop ratio, so insertPercent only affects mixed.
+// When one side outpaces the other the depth drifts from its starting point,
+// and a starved consumer measures empty retrievals.
+public abstract class ContendedQueueBenchmark extends QueueBenchmark {
+
+    @Benchmark
+    @Group("producerConsumer")
+    @GroupThreads(1)
+    // Insert the next key.
+    public void produce(Cursor cursor) {
+        queue.insert(nextKey(cursor));
+    }
+
+    @Benchmark
+    @Group("producerConsumer")
+    @GroupThreads(1)
+    // Retrieve the front of the queue.
+    public Integer consume() {
+        return retrieve();
+    }
+}
@@ -0,0 +1,71 @@
+// Benchmarks the primitive int and long priority queues against the boxed one.
+
+package prioritetsko;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Benchmark;
+
+// Measures the int and long heaps on one thread with the same keys and push/pop
+// mix as the other benchmarks, while mixed measures the boxed sequential heap
+// for comparison. The primitive queues are prefilled through their array
+// constructors, and the GC profiler shows what boxing costs per operation.
+@Threads(1)
+public class PrimitiveQueueBenchmark extends QueueBenchmark {
+    private SequentialIntPriorityQueue intQueue;
+    private SequentialLongPriorityQueue longQueue;
+
+    @Override
+    // Create the boxed sequential priority queue.
+    protected PriorityQueue<Integer> createQueue() {
+        return new SequentialPriorityQueue<Integer>();
+    }
+
+    // Start every iteration from new primitive queues at the requested depth.
+    @Setup(Level.Iteration)
+    public void setupPrimitiveQueues() {
+        int[] intKeys = new int[depth];
+        long[] longKeys = new long[depth];
+        for (int count = 0; count < depth; count++) {
+            intKeys[count] = prefillKey(count);
+            longKeys[count] = intKeys[count];
+        }
+        intQueue = new SequentialIntPriorityQueue(intKeys);
+        longQueue = new SequentialLongPriorityQueue(longKeys);
+    }
+
+    @Benchmark
+    // Insert into or retrieve from the int queue according to the mix.
+    public int mixedInt(Cursor cursor) {
+        if (nextIsInsert(cursor)) {
+            intQueue.insert(nextKey(cursor));
+
+            return 0;
+        }
+
+        try {
+            return intQueue.retrieve();
+        }
+        catch (EmptyQueueException exception) {
+            return 0;
+        }
+    }
+
+    @Benchmark
+    // Insert into or retrieve from the long queue according to the mix.
+    public long mixedLong(Cursor cursor) {
+        if (nextIsInsert(cursor)) {
+            longQueue.insert(nextKey(cursor));
+
+            return 0;
+        }
+
+        try {
+            return longQueue.retrieve();
+        }
+        catch (EmptyQueueException exception) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+// The JMH state and single-queue benchmark shared by every priority queue.
+
+package prioritetsko;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.infra.ThreadParams;
+
+// Holds one queue, shared by every benchmark thread, that is rebuilt and
+// prefilled to the given depth before each iteration. Keys are boxed ahead of
+// time and the push/pop mix is a shuffled pattern, so the measured operation
+// allocates and branches only as much as the queue itself does. Subclasses
+// pick the queue and may add benchmarks of their own.
+//
+// A steady insert-heavy mix would grow the queue for the whole iteration, so
+// the depth measured would depend on the iteration length. Instead the first
+// half of the pattern follows insertPercent and the second half mirrors it,
+// so each pass over the pattern inserts exactly as many keys as it retrieves.
+// A thread therefore alternates between growing and shrinking the queue by at
+// most PATTERN_LENGTH / 2 keys, and the depth stays near its starting point.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+public abstract class QueueBenchmark {
+    private static final int TOTAL_KEYS = 1 << 16;
+    private static final int PATTERN_LENGTH = 1 << 10;
+    private static final int DUPLICATE_KEYS = 16;
+
+    @Param({"1000", "100000"})
+    public int depth;
+
+    @Param({"50", "80"})
+    public int insertPercent;
+
+    @Param({"uniform", "ascending", "descending", "duplicates"})
+    public String keys;
+
+    protected PriorityQueue<Integer> queue;
+    private Integer[] keyValues;
+    private boolean[] insertPattern;
+
+    // Create the queue this benchmark measures.
+    protected abstract PriorityQueue<Integer> createQueue();
+
+    // Generate the keys and the push/pop pattern once per trial.
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        Random random = new Random(depth);
+        keyValues = generateKeys(keys, TOTAL_KEYS, random);
+
+        int half = PATTERN_LENGTH / 2;
+        insertPattern = new boolean[PATTERN_LENGTH];
+        fillPattern(insertPattern, 0, half, half * insertPercent / 100, random);
+        fillPattern(insertPattern, half, half, half - half * insertPercent / 100, random);
+    }
+
+    // Start every iteration from a new queue at the requested depth.
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        queue = createQueue();
+        for (int count = 0; count < depth; count++) {
+            queue.insert(prefillKey(count));
+        }
+    }
+
+    // Stop any threads the queue started.
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        queue.finish();
+    }
+
+    @Benchmark
+    // Insert or retrieve according to the push/pop mix.
+    public Integer mixed(Cursor cursor) {
+        if (nextIsInsert(cursor)) {
+            queue.insert(nextKey(cursor));
+
+            return null;
+        }
+
+        return retrieve();
+    }
+
+    // Get and remove the front of the queue, or null if it is empty.
+    protected Integer retrieve() {
+        try {
+            return queue.retrieve();
+        }
+        catch (EmptyQueueException exception) {
+            return null;
+        }
+    }
+
+    // Get the next key for an insertion.
+    protected Integer nextKey(Cursor cursor) {
+        return keyValues[cursor.nextKey()];
+    }
+
+    // Check if the next operation in the push/pop mix is an insertion.
+    protected boolean nextIsInsert(Cursor cursor) {
+        return insertPattern[cursor.nextOperation()];
+    }
+
+    // Get the key for the given position while prefilling a queue.
+    protected Integer prefillKey(int count) {
+        return keyValues[count % TOTAL_KEYS];
+    }
+
+    // Fill the length slots from start with the given number of insertions,
+    // in shuffled order.
+    private static void fillPattern(boolean[] pattern, int start, int length, int inserts, Random random) {
+        for (int index = 0; index < length; index++) {
+            pattern[start + index] = index < inserts;
+        }
+        for (int index = length - 1; index > 0; index--) {
+            int other = random.nextInt(index + 1);
+            boolean swap = pattern[start + index];
+            pattern[start + index] = pattern[start + other];
+            pattern[start + other] = swap;
+        }
+    }
+
+    // Generate count boxed keys following the given distribution.
+    private static Integer[] generateKeys(String distribution, int count, Random random) {
+        Integer[] generated = new Integer[count];
+        for (int index = 0; index < count; index++) {
+            switch (distribution) {
+                case "ascending":
+                    generated[index] = index;
+                    break;
+                case "descending":
+                    generated[index] = count - index;
+                    break;
+                case "duplicates":
+                    generated[index] = random.nextInt(DUPLICATE_KEYS);
+                    break;
+                default:
+                    generated[index] = random.nextInt();
+                    break;
+            }
+        }
+
+        return generated;
+    }
+
+    // Each thread's position in the shared keys and push/pop pattern. Threads
+    // start at different offsets so they do not insert the same keys in step
+    // or grow the queue all at once. The offsets are seeded from the thread
+    // index, so every fork starts the same way.
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int keyIndex;
+        private int operationIndex;
+
+        // Pick this thread's starting offsets.
+        @Setup(Level.Trial)
+        public void setup(ThreadParams threadParams) {
+            Random random = new Random(threadParams.getThreadIndex());
+            keyIndex = random.nextInt(TOTAL_KEYS);
+            operationIndex = random.nextInt(PATTERN_LENGTH);
+        }
+
+        // Get the index of the next key.
+        int nextKey() {
+            keyIndex = (keyIndex + 1) & (TOTAL_KEYS - 1);
+
+            return keyIndex;
+        }
+
+        // Get the index of the next operation in the pattern.
+        int nextOperation() {
+            operationIndex = (operationIndex + 1) & (PATTERN_LENGTH - 1);
+
+            return operationIndex;
+        }
+    }
+}
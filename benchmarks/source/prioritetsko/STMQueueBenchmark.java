@@ -0,0 +1,50 @@
+// Benchmarks the software transactional memory priority queue.
+
+package prioritetsko;
+
+import java.lang.reflect.Method;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+// Measures the STM queue in forks that load the Deuce agent, without which its
+// transactions are not atomic. The Deuce runtime goes on the boot class path so
+// that rewritten classes can reach it, and JMH's own classes are left alone.
+// The agent path is relative to the benchmarks directory, so run the
+// benchmarks from there.
+@Fork(value = 3, jvmArgsAppend = {
+    "-javaagent:../lib/deuceAgent-1.3.0.jar",
+    "-Xbootclasspath/a:../lib/deuceAgent-1.3.0.jar",
+    "-Dorg.deuce.exclude=java.*,sun.*,jdk.*,org.openjdk.jmh.*,prioritetsko.jmh_generated.*,"
+        + "prioritetsko.QueueBenchmark,prioritetsko.QueueBenchmark$Cursor,"
+        + "prioritetsko.ContendedQueueBenchmark,prioritetsko.STMQueueBenchmark"
+})
+public class STMQueueBenchmark extends ContendedQueueBenchmark {
+    private static final String CONTEXT_CLASS = "org.deuce.transaction.Context";
+
+    // Refuse to measure a queue the agent did not rewrite. Deuce gives every
+    // method it instruments a transactional twin that takes a Context, and it
+    // skips classes it cannot parse, which would silently time a queue with no
+    // synchronization at all.
+    @Setup(Level.Trial)
+    public void checkInstrumentation() {
+        for (Method method : STMPriorityQueue.class.getDeclaredMethods()) {
+            Class<?>[] parameters = method.getParameterTypes();
+            if (parameters.length > 0
+                && parameters[parameters.length - 1].getName().equals(CONTEXT_CLASS)) {
+
+                return;
+            }
+        }
+
+        throw new IllegalStateException(
+            "The Deuce agent did not instrument STMPriorityQueue on this JVM."
+        );
+    }
+
+    @Override
+    // Create an STM priority queue.
+    protected PriorityQueue<Integer> createQueue() {
+        return new STMPriorityQueue<Integer>();
+    }
+}
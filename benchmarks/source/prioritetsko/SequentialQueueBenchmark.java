@@ -0,0 +1,17 @@
+// Benchmarks the sequential priority queue as a single-threaded baseline.
+
+package prioritetsko;
+
+import org.openjdk.jmh.annotations.Threads;
+
+// Measures the unsynchronized heap on one thread, which bounds what any of the
+// concurrent queues can reach per thread.
+@Threads(1)
+public class SequentialQueueBenchmark extends QueueBenchmark {
+
+    @Override
+    // Create a sequential priority queue.
+    protected PriorityQueue<Integer> createQueue() {
+        return new SequentialPriorityQueue<Integer>();
+    }
+}
@@ -0,0 +1,14 @@
+// Benchmarks the software transactional memory priority queue that needs no agent.
+
+package prioritetsko;
+
+// Measures the TL2 queue, the agent-free counterpart to STMQueueBenchmark. Its
+// memory grows with the heap, so it runs the producer/consumer group as well.
+public class TL2QueueBenchmark extends ContendedQueueBenchmark {
+
+    @Override
+    // Create a TL2 priority queue.
+    protected PriorityQueue<Integer> createQueue() {
+        return new TL2PriorityQueue<Integer>();
+    }
+}
@@ -11,6 +11,10 @@ PACKAGE_NAME="prioritetsko"
 MAIN_CLASS="PrioritetskoTester"
 DEUCE_JAR="deuceAgent-1.3.0.jar"
 
+# On newer JDKs the agent must leave the JDK's own classes alone, and its
+# runtime must be on the boot class path so that rewritten classes reach it.
+DEUCE_EXCLUDE="java.*,sun.*,jdk.*"
+
 # Build the program in a build folder.
 build_program() {
     rm -rf "$BUILD_DIR"
@@ -33,7 +37,9 @@ run_program() {
         printf "Please build the program first using --build.\n"
         exit 1
     fi
-    java  -javaagent:"../$LIB_DIR/$DEUCE_JAR" \
+    java -javaagent:"../$LIB_DIR/$DEUCE_JAR" \
+         -Xbootclasspath/a:"../$LIB_DIR/$DEUCE_JAR" \
+         -Dorg.deuce.exclude="$DEUCE_EXCLUDE" \
          "$PACKAGE_NAME.$MAIN_CLASS" "$@"
     cd .. 1>/dev/null 2>&1
 }
@@ -1,11 +1,15 @@
 """Graph the results of Prioritetsko's testing program.
 
-This script expects the testing results to be piped in through stdin.
+This script expects the testing results to be piped in through stdin, in any
+of the testing program's output formats. Results in csv or json also produce
+graphs of throughput and of p99 insert and retrieve latencies.
 
 Written by Tiger Sachse.
 """
 import re
+import csv
 import sys
+import json
 import matplotlib.pyplot as pyplot
 from matplotlib.ticker import MaxNLocator
 
@@ -15,6 +19,12 @@ X_LABEL = "Threads"
 Y_LABEL = "Milliseconds"
 OUTPUT_FILE_NAME = "results.png"
 GRAPH_TITLE_FORMAT = "Execution Time Per Thread ({0}:{1} Push/Pop Ratio)"
+THROUGHPUT_Y_LABEL = "Operations Per Second"
+THROUGHPUT_FILE_NAME = "throughput.png"
+THROUGHPUT_TITLE_FORMAT = "Throughput ({0}:{1} Push/Pop Ratio)"
+LATENCY_Y_LABEL = "p99 Latency (Nanoseconds)"
+LATENCY_FILE_NAME = "latency.png"
+LATENCY_TITLE_FORMAT = "p99 Latency ({0}:{1} Push/Pop Ratio)"
 HEADER_REGEX = r"^Execution time per thread for the (?P<queue_name>\w+):\n$"
 DATA_LINE_REGEX = (
     r"^Threads:\s+(?P<thread_count>\d+)"
@@ -24,9 +34,58 @@ DATA_LINE_REGEX = (
 
 
 def get_graphs_from_stdin(header_regex, data_line_regex):
-    """Get all graphs from stdin."""
+    """Get all graphs from stdin, whatever format they are in."""
+    lines = sys.stdin.readlines()
+    first_line = next((line for line in lines if line.strip()), "")
+    if first_line.startswith("["):
+        return get_graphs_from_json(lines)
+    elif first_line.startswith("queue,"):
+        return get_graphs_from_csv(lines)
+    else:
+        return get_graphs_from_text(lines, header_regex, data_line_regex)
+
+
+def get_graphs_from_json(lines):
+    """Get all graphs from the lines of a json results file."""
     graphs = []
-    for line in sys.stdin:
+    for queue in json.loads("".join(lines)):
+        graphs.append({"name": queue["queue"], "execution_times": []})
+        graphs[-1]["ops_per_second"] = []
+        graphs[-1]["insert_p99"] = []
+        graphs[-1]["retrieve_p99"] = []
+        for result in queue["results"]:
+            graphs[-1]["execution_times"].append(result["milliseconds"])
+            graphs[-1]["ops_per_second"].append(result["opsPerSecond"])
+            graphs[-1]["insert_p99"].append(result["insert"]["p99"])
+            graphs[-1]["retrieve_p99"].append(result["retrieve"]["p99"])
+
+    return graphs
+
+
+def get_graphs_from_csv(lines):
+    """Get all graphs from the lines of a csv results file."""
+    graphs = []
+    for row in csv.DictReader(lines):
+
+        # Rows for the same queue are consecutive, so a new name starts a new
+        # graph.
+        if len(graphs) == 0 or graphs[-1]["name"] != row["queue"]:
+            graphs.append({"name": row["queue"], "execution_times": []})
+            graphs[-1]["ops_per_second"] = []
+            graphs[-1]["insert_p99"] = []
+            graphs[-1]["retrieve_p99"] = []
+        graphs[-1]["execution_times"].append(float(row["milliseconds"]))
+        graphs[-1]["ops_per_second"].append(float(row["ops_per_second"]))
+        graphs[-1]["insert_p99"].append(int(row["insert_p99_ns"]))
+        graphs[-1]["retrieve_p99"].append(int(row["retrieve_p99_ns"]))
+
+    return graphs
+
+
+def get_graphs_from_text(lines, header_regex, data_line_regex):
+    """Get all graphs from the lines of a text results file."""
+    graphs = []
+    for line in lines:
 
         # If the line is a header: create a new graph dictionary in the graphs
         # list and initialize it.
@@ -64,16 +123,60 @@ def plot_graphs(
     graph_title_format,
     output_file_name):
     """Plot all graph data using Matplotlib."""
+    plot_series(
+        [(graph["name"], graph["execution_times"]) for graph in graphs],
+        total_pushes,
+        total_pops,
+        x_label,
+        y_label,
+        graph_title_format,
+        output_file_name,
+    )
+
+    # Only the csv and json formats carry throughput and latencies.
+    if len(graphs) == 0 or "ops_per_second" not in graphs[0]:
+        return
+
+    plot_series(
+        [(graph["name"], graph["ops_per_second"]) for graph in graphs],
+        total_pushes,
+        total_pops,
+        x_label,
+        THROUGHPUT_Y_LABEL,
+        THROUGHPUT_TITLE_FORMAT,
+        THROUGHPUT_FILE_NAME,
+    )
+    plot_series(
+        [(graph["name"] + " insert", graph["insert_p99"]) for graph in graphs]
+        + [(graph["name"] + " retrieve", graph["retrieve_p99"]) for graph in graphs],
+        total_pushes,
+        total_pops,
+        x_label,
+        LATENCY_Y_LABEL,
+        LATENCY_TITLE_FORMAT,
+        LATENCY_FILE_NAME,
+    )
+
+
+def plot_series(
+    series,
+    total_pushes,
+    total_pops,
+    x_label,
+    y_label,
+    graph_title_format,
+    output_file_name):
+    """Plot named lines of per-thread-count values into one image."""
 
     # Set the x axis to always be whole numbers.
     axis = pyplot.figure().gca()
     axis.xaxis.set_major_locator(MaxNLocator(integer=True))
 
-    for graph in graphs:
+    for name, values in series:
         pyplot.plot(
-            [num for num in range(1, len(graph["execution_times"]) + 1)],
-            graph["execution_times"],
-            label=graph["name"],
+            [num for num in range(1, len(values) + 1)],
+            values,
+            label=name,
         )
 
     pyplot.title(graph_title_format.format(total_pushes, total_pops))
@@ -0,0 +1,132 @@
+// Measures how many bytes each insert/retrieve pair allocates in the
+// elimination-combining priority queue, with and without element recycling,
+// and outputs the results to stdout. This program is executed like so:
+//     $ java AllocationBenchmark <queueDepth> <totalPairs> [totalThreads]
+
+package prioritetsko;
+
+import java.util.Random;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+// Benchmark allocation per operation using the JVM's per-thread allocation
+// counters.
+public class AllocationBenchmark {
+    private static final int DEFAULT_THREADS = 4;
+
+    private static final com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Main entry point to this program.
+    public static void main(String[] argumentsVector) throws InterruptedException {
+        if (argumentsVector.length < 2) {
+            System.err.println("Arguments: <queueDepth> <totalPairs> [totalThreads]");
+            System.exit(1);
+        }
+
+        int queueDepth = 0;
+        int totalPairs = 0;
+        int totalThreads = DEFAULT_THREADS;
+        try {
+            queueDepth = Integer.parseInt(argumentsVector[0]);
+            totalPairs = Integer.parseInt(argumentsVector[1]);
+            if (argumentsVector.length > 2) {
+                totalThreads = Integer.parseInt(argumentsVector[2]);
+            }
+        }
+        catch (NumberFormatException exception) {
+            System.err.println("Your arguments must all be integers.");
+            System.exit(2);
+        }
+
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            System.err.println("This JVM cannot measure per-thread allocation.");
+            System.exit(3);
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        // The first round only warms up.
+        for (int runID = 0; runID < 2; runID++) {
+            for (boolean recycleElements : new boolean[] {false, true}) {
+                ECPriorityQueue<Integer> queue = new ECPriorityQueue<Integer>(recycleElements);
+                double bytesPerPair = runTest(queue, queueDepth, totalPairs, totalThreads);
+                queue.finish();
+
+                if (runID > 0) {
+                    System.out.printf(
+                        "Recycling: %-5b | Bytes per insert/retrieve pair: %8.1f\n",
+                        recycleElements,
+                        bytesPerPair
+                    );
+                }
+            }
+        }
+    }
+
+    // Prefill a queue, then have every thread run insert/retrieve pairs and
+    // report the bytes allocated per pair by the workers and the combiner.
+    private static double runTest(
+        ECPriorityQueue<Integer> queue,
+        int queueDepth,
+        int totalPairs,
+        int totalThreads) throws InterruptedException {
+
+        Random random = new Random(queueDepth);
+        for (int count = 0; count < queueDepth; count++) {
+            queue.insert(random.nextInt());
+        }
+
+        // Box the values up front so that boxing is not counted.
+        Integer[] values = new Integer[1024];
+        for (int count = 0; count < values.length; count++) {
+            values[count] = random.nextInt();
+        }
+
+        // Threads that already exist, including the combiner, are measured
+        // from the outside; workers measure themselves before they exit.
+        long[] existingThreads = threadBean.getAllThreadIds();
+        long existingBefore = sum(threadBean.getThreadAllocatedBytes(existingThreads));
+
+        LongAdder workerBytes = new LongAdder();
+        int pairsPerThread = totalPairs / totalThreads;
+        Thread[] threads = new Thread[totalThreads];
+        for (int threadID = 0; threadID < totalThreads; threadID++) {
+            threads[threadID] = new Thread(() -> {
+                long workerID = Thread.currentThread().getId();
+                long threadBefore = threadBean.getThreadAllocatedBytes(workerID);
+                for (int count = 0; count < pairsPerThread; count++) {
+                    queue.insert(values[count & (values.length - 1)]);
+                    try {
+                        queue.retrieve();
+                    }
+                    catch (EmptyQueueException exception) {
+                    }
+                }
+                workerBytes.add(threadBean.getThreadAllocatedBytes(workerID) - threadBefore);
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long existingAfter = sum(threadBean.getThreadAllocatedBytes(existingThreads));
+
+        return ((double) (workerBytes.sum() + existingAfter - existingBefore))
+            / (pairsPerThread * totalThreads);
+    }
+
+    // Add up per-thread byte counts, skipping threads that have exited.
+    private static long sum(long[] bytes) {
+        long total = 0;
+        for (long count : bytes) {
+            if (count > 0) {
+                total += count;
+            }
+        }
+
+        return total;
+    }
+}
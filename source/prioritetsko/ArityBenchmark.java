@@ -0,0 +1,112 @@
+// Compares heap arities and layouts of the sequential priority queue and
+// outputs the results to stdout. This program is executed like so:
+//     $ java ArityBenchmark <queueDepth> <totalPushes> <totalPops> [totalRuns]
+
+package prioritetsko;
+
+import java.util.Random;
+
+// Benchmark a range of heap arities for a given push/pop mix.
+public class ArityBenchmark {
+    private static final int DEFAULT_RUNS = 10;
+    private static final int[] ARITIES = {2, 4, 8, 16};
+
+    // Main entry point to this program.
+    public static void main(String[] argumentsVector) throws EmptyQueueException {
+        if (argumentsVector.length < 3) {
+            System.err.println(
+                "Arguments: <queueDepth> <totalPushes> <totalPops> [totalRuns]"
+            );
+            System.exit(1);
+        }
+
+        int queueDepth = 0;
+        int totalPushes = 0;
+        int totalPops = 0;
+        int totalRuns = DEFAULT_RUNS;
+        try {
+            queueDepth = Integer.parseInt(argumentsVector[0]);
+            totalPushes = Integer.parseInt(argumentsVector[1]);
+            totalPops = Integer.parseInt(argumentsVector[2]);
+            if (argumentsVector.length > 3) {
+                totalRuns = Integer.parseInt(argumentsVector[3]);
+            }
+        }
+        catch (NumberFormatException exception) {
+            System.err.println("Your arguments must all be integers.");
+            System.exit(2);
+        }
+
+        // Warm up every configuration once so that the first one measured is
+        // not also the one paying for compilation.
+        for (int arity : ARITIES) {
+            runTest(queueDepth, totalPushes, totalPops, arity, false);
+            runTest(queueDepth, totalPushes, totalPops, arity, true);
+        }
+
+        System.out.printf(
+            "Milliseconds per run at depth %d with %d pushes and %d pops:\n",
+            queueDepth,
+            totalPushes,
+            totalPops
+        );
+        for (int arity : ARITIES) {
+            for (boolean aligned : new boolean[] {false, true}) {
+                double total = 0;
+                for (int runID = 0; runID < totalRuns; runID++) {
+                    total += runTest(queueDepth, totalPushes, totalPops, arity, aligned);
+                }
+                System.out.printf(
+                    "Arity: %2d | Aligned: %-5b | Milliseconds: %f\n",
+                    arity,
+                    aligned,
+                    total / totalRuns
+                );
+            }
+        }
+    }
+
+    // Fill a queue to the given depth, then time a random mix of pushes and pops.
+    private static double runTest(
+        int queueDepth,
+        int totalPushes,
+        int totalPops,
+        int arity,
+        boolean aligned) throws EmptyQueueException {
+
+        Random random = new Random(queueDepth);
+        SequentialPriorityQueue<Integer> queue =
+            new SequentialPriorityQueue<Integer>(arity, aligned);
+        for (int count = 0; count < queueDepth; count++) {
+            queue.insert(random.nextInt());
+        }
+
+        // Preallocate the pushed values so boxing is not measured.
+        Integer[] values = new Integer[totalPushes];
+        for (int count = 0; count < totalPushes; count++) {
+            values[count] = random.nextInt();
+        }
+
+        int remainingPushes = totalPushes;
+        int remainingPops = totalPops;
+        float odds = ((float) totalPushes) / (totalPushes + totalPops);
+
+        long startTime = System.nanoTime();
+        while (remainingPushes > 0 || remainingPops > 0) {
+            boolean executePush = remainingPops == 0
+                || (remainingPushes > 0 && random.nextFloat() < odds);
+            if (executePush) {
+                queue.insert(values[--remainingPushes]);
+            }
+            else {
+                if (!queue.isEmpty()) {
+                    queue.retrieve();
+                }
+                remainingPops--;
+            }
+        }
+        long stopTime = System.nanoTime();
+
+        return ((double) (stopTime - startTime)) / 1000000;
+    }
+}
@@ -0,0 +1,220 @@
+// A priority queue with blocking retrievals in front of any other priority queue.
+
+package prioritetsko;
+
+import java.lang.Comparable;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Provides take, poll with a timeout and drainTo over any priority queue, so
+// that consumers wait for elements instead of spinning on empty retrievals.
+// Waiting consumers line up in a FIFO queue of waiter nodes and each insertion
+// wakes exactly one of them, so there is no thundering herd. A waiter's state
+// moves from waiting to either signaled or cancelled by compare-and-set, which
+// settles the race between a wakeup and a timeout or interrupt; a waiter that
+// was signaled but no longer needs the element passes the signal on. A
+// cancelled waiter is left in line for the next insertion to skip over, and
+// once enough of them pile up without insertions they are swept out in one
+// pass, so giving up costs no search of the line. Whoever takes a cancelled
+// waiter out of line first moves it to removed, so each one is counted out of
+// the pile exactly once. Waiting
+// uses LockSupport parking and no monitors, so it does not pin the carrier
+// thread of a virtual thread and thousands of consumers can wait cheaply.
+public class BlockingPriorityQueue
+    <E extends Comparable<E>>
+    implements PriorityQueue<E> {
+
+    private static final int WAITING = 0;
+    private static final int SIGNALED = 1;
+    private static final int CANCELLED = 2;
+    private static final int REMOVED = 3;
+
+    private static final int SWEEP_THRESHOLD = 64;
+
+    private final PriorityQueue<E> queue;
+    private final ConcurrentLinkedQueue<Waiter> waiters;
+    private final AtomicInteger cancelledWaiters;
+
+    // Create a new blocking priority queue in front of another one.
+    public BlockingPriorityQueue(PriorityQueue<E> queue) {
+        this.queue = queue;
+        waiters = new ConcurrentLinkedQueue<Waiter>();
+        cancelledWaiters = new AtomicInteger();
+    }
+
+    @Override
+    // Add an element to the priority queue and wake one waiting consumer.
+    public void insert(E element) {
+        queue.insert(element);
+        signalWaiter();
+    }
+
+    @Override
+    // Get and remove the element at the front of the priority queue without
+    // waiting.
+    public E retrieve() throws EmptyQueueException {
+        E element = tryRetrieve();
+        if (element == null) {
+            throw new EmptyQueueException("The priority queue is empty!");
+        }
+
+        return element;
+    }
+
+    // Get and remove the element at the front of the priority queue, waiting
+    // for one if necessary.
+    public E take() throws InterruptedException {
+        return await(false, 0);
+    }
+
+    // Get and remove the element at the front of the priority queue, waiting up
+    // to the given time for one. Returns null if none arrived in time.
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return await(true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    // Move every available element into a collection without waiting.
+    public int drainTo(Collection<? super E> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    // Move up to maxElements available elements into a collection without
+    // waiting.
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        int drained = 0;
+        while (drained < maxElements) {
+            E element = tryRetrieve();
+            if (element == null) {
+                break;
+            }
+            collection.add(element);
+            drained++;
+        }
+
+        return drained;
+    }
+
+    @Override
+    // Finish the underlying priority queue.
+    public void finish() {
+        queue.finish();
+    }
+
+    // Retrieve an element, waiting until one arrives, the deadline passes (if
+    // timed) or the thread is interrupted.
+    private E await(boolean timed, long deadline) throws InterruptedException {
+        Waiter waiter = null;
+        while (true) {
+            if (Thread.interrupted()) {
+
+                // A waiter from an earlier pass was signaled, and the signal
+                // is not going to be used, so pass it on.
+                if (waiter != null) {
+                    signalWaiter();
+                }
+                throw new InterruptedException();
+            }
+
+            E element = tryRetrieve();
+            if (element != null) {
+                return element;
+            }
+
+            // Line up, then check again so that an insertion made before we
+            // were in line is not missed.
+            waiter = new Waiter(Thread.currentThread());
+            waiters.add(waiter);
+            element = tryRetrieve();
+            if (element != null) {
+                withdraw(waiter);
+                return element;
+            }
+
+            while (waiter.state.get() == WAITING) {
+                if (timed) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        withdraw(waiter);
+                        return tryRetrieve();
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+                else {
+                    LockSupport.park(this);
+                }
+
+                if (Thread.interrupted()) {
+                    withdraw(waiter);
+                    throw new InterruptedException();
+                }
+            }
+        }
+    }
+
+    // Mark a waiter as cancelled, leaving it in line to be discarded later. If
+    // it was signaled in the meantime, the signal belongs to someone else, so
+    // pass it on.
+    private void withdraw(Waiter waiter) {
+        if (waiter.state.compareAndSet(WAITING, CANCELLED)) {
+            if (cancelledWaiters.incrementAndGet() >= SWEEP_THRESHOLD) {
+                sweepCancelled();
+            }
+        }
+        else {
+            signalWaiter();
+        }
+    }
+
+    // Remove every cancelled waiter from the line. Consumers that time out
+    // while nothing is inserted would otherwise keep the line growing.
+    private void sweepCancelled() {
+        int removed = 0;
+        for (Waiter waiter : waiters) {
+            if (waiter.state.compareAndSet(CANCELLED, REMOVED)) {
+                removed++;
+            }
+        }
+        waiters.removeIf(waiter -> waiter.state.get() == REMOVED);
+        cancelledWaiters.addAndGet(-removed);
+    }
+
+    // Wake the longest waiting consumer that has not given up, discarding the
+    // cancelled ones in front of it.
+    private void signalWaiter() {
+        Waiter waiter;
+        while ((waiter = waiters.poll()) != null) {
+            if (waiter.state.compareAndSet(WAITING, SIGNALED)) {
+                LockSupport.unpark(waiter.thread);
+                return;
+            }
+            if (waiter.state.compareAndSet(CANCELLED, REMOVED)) {
+                cancelledWaiters.decrementAndGet();
+            }
+        }
+    }
+
+    // Retrieve an element, or null if the queue is empty. Some queues report
+    // emptiness by returning null rather than throwing.
+    private E tryRetrieve() {
+        try {
+            return queue.retrieve();
+        }
+        catch (EmptyQueueException exception) {
+            return null;
+        }
+    }
+
+    // A consumer waiting for an element.
+    private static final class Waiter {
+        final Thread thread;
+        final AtomicInteger state;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+            this.state = new AtomicInteger(WAITING);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+// A priority queue that buffers each thread's insertions in front of any other
+// priority queue.
+
+package prioritetsko;
+
+import java.lang.Comparable;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Provides a priority queue for producers whose elements are not needed soon.
+// Each thread keeps a small sorted run of its own insertions behind a lock that
+// only retrievers ever contend for, and publishes the run's minimum. A run is
+// flushed into the shared queue when it fills up, or right away when an element
+// is no larger than the last element retrieved, since such an element is about
+// to be wanted. A retrieval reads every run's minimum, moves the smallest of
+// them into the shared queue and then takes the front of the shared queue,
+// which can be no larger than any minimum it read. Retrievals never take
+// elements out of the shared queue and put them back, so they need no lock of
+// their own and run concurrently, each paying for the one element it promotes.
+// An element is always in the shared queue or a run, and only holders of a
+// run's lock remove from it, so nothing is lost or seen twice. Retrievals stay
+// in priority order while most insertions never touch the shared queue. Runs
+// of threads that have exited are flushed and unlinked whenever a new thread
+// registers, so the list of runs stays about as long as the number of live
+// threads.
+public class BufferedPriorityQueue
+    <E extends Comparable<E>>
+    implements PriorityQueue<E> {
+
+    private static final int DEFAULT_RUN_CAPACITY = 32;
+
+    private final PriorityQueue<E> queue;
+    private final int runCapacity;
+    private final AtomicReference<Buffer<E>> buffers;
+    private final ThreadLocal<Buffer<E>> threadBuffer;
+    private final ReentrantLock unlinkLock;
+    private volatile E floor;
+
+    // Create a new priority queue that buffers in front of another one.
+    public BufferedPriorityQueue(PriorityQueue<E> queue) {
+        this(queue, DEFAULT_RUN_CAPACITY);
+    }
+
+    // Create a new priority queue that buffers up to runCapacity elements per
+    // thread in front of another one.
+    public BufferedPriorityQueue(PriorityQueue<E> queue, int runCapacity) {
+        if (runCapacity < 1) {
+            throw new IllegalArgumentException("The run capacity must be positive.");
+        }
+        this.queue = queue;
+        this.runCapacity = runCapacity;
+        buffers = new AtomicReference<Buffer<E>>();
+        threadBuffer = ThreadLocal.withInitial(this::register);
+        unlinkLock = new ReentrantLock();
+        floor = null;
+    }
+
+    @Override
+    // Add an element to this thread's run, or to the shared queue if it is
+    // likely to be retrieved soon.
+    public void insert(E element) {
+        Buffer<E> buffer = threadBuffer.get();
+        E currentFloor = floor;
+
+        buffer.lock.lock();
+        try {
+            if (currentFloor != null && element.compareTo(currentFloor) <= 0) {
+                flush(buffer);
+                queue.insert(element);
+            }
+            else {
+                buffer.add(element);
+                if (buffer.count == runCapacity) {
+                    flush(buffer);
+                }
+            }
+        }
+        finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    @Override
+    // Get and remove the smallest element in the shared queue or any run.
+    public E retrieve() throws EmptyQueueException {
+        while (true) {
+
+            // Promote the smallest run minimum, so that the front of the shared
+            // queue is no larger than anything the scan saw.
+            Buffer<E> bestBuffer = null;
+            E bestMinimum = null;
+            for (Buffer<E> buffer = buffers.get(); buffer != null; buffer = buffer.next) {
+                E minimum = buffer.minimum;
+                if (minimum != null
+                    && (bestMinimum == null || minimum.compareTo(bestMinimum) < 0)) {
+
+                    bestBuffer = buffer;
+                    bestMinimum = minimum;
+                }
+            }
+            if (bestBuffer != null) {
+                promote(bestBuffer);
+            }
+
+            E element = null;
+            try {
+                element = queue.retrieve();
+            }
+            catch (EmptyQueueException exception) {
+            }
+
+            if (element != null) {
+                floor = element;
+                return element;
+            }
+
+            // Another retrieval took what was promoted, so look again.
+            if (bestBuffer == null) {
+                throw new EmptyQueueException("The priority queue is empty!");
+            }
+        }
+    }
+
+    // Move this thread's run into the shared queue.
+    public void flush() {
+        Buffer<E> buffer = threadBuffer.get();
+
+        buffer.lock.lock();
+        try {
+            flush(buffer);
+        }
+        finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    @Override
+    // Move every run into the shared queue and finish it.
+    public void finish() {
+        for (Buffer<E> buffer = buffers.get(); buffer != null; buffer = buffer.next) {
+            buffer.lock.lock();
+            try {
+                flush(buffer);
+            }
+            finally {
+                buffer.lock.unlock();
+            }
+        }
+
+        queue.finish();
+    }
+
+    // Move a run's minimum into the shared queue. The element is inserted before
+    // it leaves the run, so a retrieval never misses it.
+    private void promote(Buffer<E> buffer) {
+        buffer.lock.lock();
+        try {
+            if (buffer.count > 0) {
+                queue.insert(buffer.get(buffer.count - 1));
+                buffer.removeMinimum();
+            }
+        }
+        finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    // Move a run into the shared queue. Must be called while holding the run's
+    // lock. The run is cleared only after every element is in the shared queue,
+    // so a retrieval never misses them.
+    private void flush(Buffer<E> buffer) {
+        for (int elementIndex = buffer.count - 1; elementIndex >= 0; elementIndex--) {
+            queue.insert(buffer.get(elementIndex));
+        }
+        buffer.clear();
+    }
+
+    // Create this thread's run, push it onto the list of runs and drop the
+    // runs of threads that have exited.
+    private Buffer<E> register() {
+        Buffer<E> buffer = new Buffer<E>(runCapacity, Thread.currentThread());
+        Buffer<E> head;
+        do {
+            head = buffers.get();
+            buffer.next = head;
+        } while (!buffers.compareAndSet(head, buffer));
+
+        unlinkLock.lock();
+        try {
+            unlinkExitedBuffers();
+        }
+        finally {
+            unlinkLock.unlock();
+        }
+
+        return buffer;
+    }
+
+    // Flush and unlink every run whose thread has exited. Must be called while
+    // holding the unlink lock, so that two threads never relink the same runs.
+    // Only the head is ever changed by other threads, and it is never unlinked
+    // here; an unlinked run keeps its next link, so a concurrent retrieval or
+    // finish still reaches the rest of the list.
+    private void unlinkExitedBuffers() {
+        Buffer<E> previous = buffers.get();
+        Buffer<E> current = previous.next;
+        while (current != null) {
+            if (current.hasExited()) {
+                current.lock.lock();
+                try {
+                    flush(current);
+                }
+                finally {
+                    current.lock.unlock();
+                }
+                previous.next = current.next;
+            }
+            else {
+                previous = current;
+            }
+            current = current.next;
+        }
+    }
+
+    // A thread's sorted run, kept largest first so that the minimum is at the
+    // end. Everything but the minimum field must be accessed under the lock.
+    private static final class Buffer<E extends Comparable<E>> {
+        final ReentrantLock lock = new ReentrantLock();
+        final Object[] run;
+        final WeakReference<Thread> owner;
+        int count;
+        volatile E minimum;
+        volatile Buffer<E> next;
+
+        Buffer(int capacity, Thread owner) {
+            run = new Object[capacity];
+            this.owner = new WeakReference<Thread>(owner);
+        }
+
+        // Check if the thread this run belongs to has exited. The owner is
+        // held weakly so that the list of runs never keeps a thread alive.
+        boolean hasExited() {
+            Thread thread = owner.get();
+
+            return thread == null || !thread.isAlive();
+        }
+
+        // Insert an element in order and publish the new minimum.
+        void add(E element) {
+            int elementIndex = count;
+            while (elementIndex > 0 && get(elementIndex - 1).compareTo(element) < 0) {
+                run[elementIndex] = run[elementIndex - 1];
+                elementIndex--;
+            }
+            run[elementIndex] = element;
+            count++;
+            minimum = get(count - 1);
+        }
+
+        // Remove and return the minimum, or null if the run is empty.
+        E removeMinimum() {
+            if (count == 0) {
+                return null;
+            }
+            E element = get(--count);
+            run[count] = null;
+            minimum = (count == 0) ? null : get(count - 1);
+
+            return element;
+        }
+
+        // Empty the run.
+        void clear() {
+            for (int elementIndex = 0; elementIndex < count; elementIndex++) {
+                run[elementIndex] = null;
+            }
+            count = 0;
+            minimum = null;
+        }
+
+        @SuppressWarnings("unchecked")
+        E get(int elementIndex) {
+            return (E) run[elementIndex];
+        }
+    }
+}
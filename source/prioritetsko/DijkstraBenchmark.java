@@ -0,0 +1,172 @@
+// Compares decrease-key on the indexed priority queue with inserting duplicates
+// into the sequential priority queue, running Dijkstra's algorithm on random
+// graphs, and outputs the results to stdout. This program is executed like so:
+//     $ java DijkstraBenchmark <totalVertices> <edgesPerVertex> [totalRuns]
+
+package prioritetsko;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.lang.Comparable;
+
+// Benchmark shortest paths with decrease-key against duplicate insertion.
+public class DijkstraBenchmark {
+    private static final int DEFAULT_RUNS = 5;
+    private static final int MAX_WEIGHT = 1000;
+
+    // Main entry point to this program.
+    public static void main(String[] argumentsVector) throws EmptyQueueException {
+        if (argumentsVector.length < 2) {
+            System.err.println("Arguments: <totalVertices> <edgesPerVertex> [totalRuns]");
+            System.exit(1);
+        }
+
+        int totalVertices = 0;
+        int edgesPerVertex = 0;
+        int totalRuns = DEFAULT_RUNS;
+        try {
+            totalVertices = Integer.parseInt(argumentsVector[0]);
+            edgesPerVertex = Integer.parseInt(argumentsVector[1]);
+            if (argumentsVector.length > 2) {
+                totalRuns = Integer.parseInt(argumentsVector[2]);
+            }
+        }
+        catch (NumberFormatException exception) {
+            System.err.println("Your arguments must all be integers.");
+            System.exit(2);
+        }
+
+        // A random graph with every vertex's edges stored contiguously.
+        Random random = new Random(totalVertices);
+        int[] targets = new int[totalVertices * edgesPerVertex];
+        int[] weights = new int[totalVertices * edgesPerVertex];
+        for (int edge = 0; edge < targets.length; edge++) {
+            targets[edge] = random.nextInt(totalVertices);
+            weights[edge] = 1 + random.nextInt(MAX_WEIGHT);
+        }
+
+        long[] indexedDistances = null;
+        long[] duplicateDistances = null;
+        double indexedTime = 0;
+        double duplicateTime = 0;
+        int[] peakSizes = new int[2];
+        for (int runID = 0; runID <= totalRuns; runID++) {
+            long startTime = System.nanoTime();
+            indexedDistances = runIndexed(totalVertices, edgesPerVertex, targets, weights, peakSizes);
+            long middleTime = System.nanoTime();
+            duplicateDistances = runDuplicates(totalVertices, edgesPerVertex, targets, weights, peakSizes);
+            long stopTime = System.nanoTime();
+
+            // The first run only warms up.
+            if (runID > 0) {
+                indexedTime += (middleTime - startTime) / 1000000.0;
+                duplicateTime += (stopTime - middleTime) / 1000000.0;
+            }
+        }
+
+        if (!Arrays.equals(indexedDistances, duplicateDistances)) {
+            System.err.println("The two approaches found different distances!");
+            System.exit(3);
+        }
+        System.out.printf(
+            "Decrease-key: %f ms, peak size %d | Duplicates: %f ms, peak size %d\n",
+            indexedTime / totalRuns,
+            peakSizes[0],
+            duplicateTime / totalRuns,
+            peakSizes[1]
+        );
+    }
+
+    // Find shortest distances from vertex 0, lowering keys in place.
+    private static long[] runIndexed(
+        int totalVertices,
+        int edgesPerVertex,
+        int[] targets,
+        int[] weights,
+        int[] peakSizes) throws EmptyQueueException {
+
+        long[] distances = new long[totalVertices];
+        Arrays.fill(distances, Long.MAX_VALUE);
+        @SuppressWarnings("unchecked")
+        IndexedPriorityQueue.Handle<Entry>[] handles =
+            (IndexedPriorityQueue.Handle<Entry>[]) new IndexedPriorityQueue.Handle<?>[totalVertices];
+        boolean[] settled = new boolean[totalVertices];
+
+        IndexedPriorityQueue<Entry> queue = new IndexedPriorityQueue<Entry>();
+        distances[0] = 0;
+        handles[0] = queue.insertHandle(new Entry(0, 0));
+        while (!queue.isEmpty()) {
+            peakSizes[0] = Math.max(peakSizes[0], queue.size());
+            int vertex = queue.retrieve().vertex;
+            settled[vertex] = true;
+
+            for (int edge = vertex * edgesPerVertex; edge < (vertex + 1) * edgesPerVertex; edge++) {
+                int target = targets[edge];
+                long distance = distances[vertex] + weights[edge];
+                if (!settled[target] && distance < distances[target]) {
+                    if (distances[target] == Long.MAX_VALUE) {
+                        handles[target] = queue.insertHandle(new Entry(distance, target));
+                    }
+                    else {
+                        queue.decreaseKey(handles[target], new Entry(distance, target));
+                    }
+                    distances[target] = distance;
+                }
+            }
+        }
+
+        return distances;
+    }
+
+    // Find shortest distances from vertex 0, inserting a new entry whenever a
+    // distance drops and skipping stale entries when they come out.
+    private static long[] runDuplicates(
+        int totalVertices,
+        int edgesPerVertex,
+        int[] targets,
+        int[] weights,
+        int[] peakSizes) throws EmptyQueueException {
+
+        long[] distances = new long[totalVertices];
+        Arrays.fill(distances, Long.MAX_VALUE);
+
+        SequentialPriorityQueue<Entry> queue = new SequentialPriorityQueue<Entry>();
+        distances[0] = 0;
+        queue.insert(new Entry(0, 0));
+        while (!queue.isEmpty()) {
+            peakSizes[1] = Math.max(peakSizes[1], queue.size());
+            Entry entry = queue.retrieve();
+            if (entry.distance > distances[entry.vertex]) {
+                continue;
+            }
+
+            int vertex = entry.vertex;
+            for (int edge = vertex * edgesPerVertex; edge < (vertex + 1) * edgesPerVertex; edge++) {
+                int target = targets[edge];
+                long distance = distances[vertex] + weights[edge];
+                if (distance < distances[target]) {
+                    queue.insert(new Entry(distance, target));
+                    distances[target] = distance;
+                }
+            }
+        }
+
+        return distances;
+    }
+
+    // A vertex and its tentative distance, ordered by distance.
+    private static final class Entry implements Comparable<Entry> {
+        final long distance;
+        final int vertex;
+
+        Entry(long distance, int vertex) {
+            this.distance = distance;
+            this.vertex = vertex;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Long.compare(distance, other.distance);
+        }
+    }
+}
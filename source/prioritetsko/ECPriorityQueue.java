@@ -3,139 +3,447 @@
 
 package prioritetsko;
 
+import java.util.List;
+import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Random;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 public class ECPriorityQueue<E extends Comparable<E>> implements PriorityQueue<E> {
-    public CopyOnWriteArrayList<Element<E>> elimination;
-    public AtomicReference<Heap<E>> pQueue; 
+    public EliminationArray<E> elimination;
+    public AtomicReference<PersistentHeap<E>> pQueue;
     private Random priotity;
-    private AtomicBoolean lock;
 
-    // Server thread that handles elimination array operations
-    private Server serverThread;
+    // Publication list of per-thread requests for the combiner. This and the
+    // metrics are package-private because the Deuce agent drops the nestmate
+    // attributes that would let the combiner read private fields.
+    AtomicReference<Request> requests;
+    private ThreadLocal<Request> threadRequest;
+
+    // Combiner thread that applies published requests in batches
+    private Combiner combinerThread;
+
+    // Per-thread spare elements, used when elements are recycled
+    private final boolean recycleElements;
+    private ThreadLocal<ElementPool<E>> elementPool;
+
+    // Where CAS failures, eliminations and combiner batches are reported
+    volatile QueueMetrics metrics = QueueMetrics.NONE;
 
     private final int REMOVE = 1;
     private final int INSERT = 2;
 
+    // Request states
+    private static final int IDLE = 0;
+    private static final int PENDING = 1;
+    private static final int CLAIMED = 2;
+    private static final int DONE = 3;
+    private static final int RETIRED = 4;
+
+    // Spins a requester makes before parking while it waits on the combiner
+    private static final int WAIT_SPINS = 64;
+
     public ECPriorityQueue () {
+        this(false);
+    }
+
+    // Build a priority queue that, if recycleElements is set, takes its
+    // elements from per-thread pools and returns them once retrieved, so that
+    // steady-state inserts and retrieves allocate no elements
+    public ECPriorityQueue (boolean recycleElements) {
         // Initialize our priority queue
-        pQueue = new AtomicReference<Heap<E>>(new Heap<E>()); 
+        pQueue = new AtomicReference<PersistentHeap<E>>(PersistentHeap.<E>empty());
 
         // Initialize elimination array
-        elimination = new CopyOnWriteArrayList<>();
+        elimination = new EliminationArray<E>();
+
+        // Initialize publication list; requests are registered lazily
+        requests = new AtomicReference<Request>();
+        threadRequest = new ThreadLocal<Request>();
 
         // Random number to assign to new elements
         priotity = new Random();
 
-        lock = new AtomicBoolean();
+        // Initialize element pools
+        this.recycleElements = recycleElements;
+        elementPool = ThreadLocal.withInitial(ElementPool::new);
+
+        // Initialize and begin combiner thread
+        combinerThread = new Combiner();
+        combinerThread.start();
+    }
+
+    // Build a priority queue from a collection, building the heap in parallel
+    public ECPriorityQueue (Collection<? extends E> collection) {
+        this(collection, ForkJoinPool.commonPool());
+    }
+
+    // Build a priority queue from a collection, building the heap in parallel
+    // on the given pool
+    public ECPriorityQueue (Collection<? extends E> collection, ForkJoinPool pool) {
+        this();
+
+        List<Element<E>> inserting = new ArrayList<Element<E>>(collection.size());
+        for (E element : collection)
+            inserting.add(new Element<>(element, INSERT, priotity.nextInt()));
 
-        // Initialize and begin server thread
-        serverThread = new Server();
-        serverThread.start();
+        pQueue.set(PersistentHeap.of(inserting, pool));
     }
 
     // Add element into our priority queue
     public void insert(E element) {
-        Heap<E> currentpQueue = pQueue.get();
-        Heap<E> updatedpQueue = new Heap<E>(currentpQueue);
+        PersistentHeap<E> currentpQueue = pQueue.get();
 
-        Element<E> inserting = new Element<>(element, INSERT, priotity.nextInt());
-        Element<E> minValue = updatedpQueue.getMin();
+        Element<E> inserting;
+        if (recycleElements)
+            inserting = elementPool.get().acquire(element, INSERT, priotity.nextInt());
+        else
+            inserting = new Element<>(element, INSERT, priotity.nextInt());
+        Element<E> minValue = currentpQueue.getMin();
 
+        // A new minimum can be handed straight to a concurrent remover
         if (minValue == null || inserting.priority < minValue.priority) {
-            elimination.add(inserting);
+            boolean eliminated = elimination.offer(inserting);
+            metrics.onElimination(eliminated);
+            if (eliminated)
+                return;
+
+            currentpQueue = pQueue.get();
         }
-        else {
-            updatedpQueue.insert(inserting);
 
-            if (!pQueue.compareAndSet(currentpQueue, updatedpQueue))
-            {
-                elimination.add(inserting);
-            }
+        // Try once on our own, then let the combiner batch it with others
+        if (!pQueue.compareAndSet(currentpQueue, currentpQueue.insert(inserting)))
+        {
+            metrics.onCasFailure();
+            combine(INSERT, inserting);
         }
     }
 
     // Removes minimum priority element from priority queue
     public E retrieve() throws EmptyQueueException {
-        Heap<E> currentpQueue = pQueue.get();
-        Heap<E> updatedpQueue;
-
-        CopyOnWriteArrayList<Element<E>> copiedElimination = new CopyOnWriteArrayList<Element<E>>(elimination);
+        PersistentHeap<E> currentpQueue = pQueue.get();
         Element<E> retVal;
 
-        for(Element<E> object: copiedElimination) {
-            if (currentpQueue.getMin() == null || (object.priority < currentpQueue.getMin().priority && object.status == INSERT)) {
-                int idx = copiedElimination.indexOf(object);
-                retVal = copiedElimination.get(idx);
-                if (!elimination.remove(object))
-                {
-                    Element<E> newElement = new Element<E>(retVal.value, REMOVE, retVal.priority);
-                    elimination.add(newElement);
-                }
-                return retVal.value;
+        // Take an offered element if it beats everything in the heap
+        retVal = elimination.take(currentpQueue.getMin());
+        metrics.onElimination(retVal != null);
+        if (retVal != null)
+            return unwrap(retVal);
+
+        // Try once on our own, then let the combiner batch it with others
+        retVal = currentpQueue.getMin();
+        if (!pQueue.compareAndSet(currentpQueue, currentpQueue.removeMin())) {
+            metrics.onCasFailure();
+            retVal = combine(REMOVE, null);
+        }
+
+        if(retVal == null) return null;
+
+        return unwrap(retVal);
+    }
+
+    // Get a retrieved element's value, recycling the element if enabled. The
+    // element has left the heap and the elimination array by now, so nothing
+    // else can hand it out again.
+    private E unwrap(Element<E> element) {
+        E value = element.value;
+        if (recycleElements)
+            elementPool.get().release(element);
+
+        return value;
+    }
+
+    // Remove everything in the heap and return it in priority order, sorting
+    // with a parallel merge sort instead of removing elements one at a time
+    @SuppressWarnings("unchecked")
+    public List<E> drainSorted() {
+        List<Element<E>> drained = pQueue.getAndSet(PersistentHeap.<E>empty()).toList();
+
+        Element<E>[] sorted = (Element<E>[]) drained.toArray(new Element<?>[drained.size()]);
+        Arrays.parallelSort(sorted, (first, second) -> Integer.compare(first.priority, second.priority));
+
+        List<E> values = new ArrayList<E>(sorted.length);
+        for (Element<E> element : sorted)
+            values.add(element.value);
+
+        return values;
+    }
+
+    public void finish() {
+        combinerThread.finish();
+    }
+
+    // Report CAS failures, retries, eliminations and combiner batches to the
+    // given metrics
+    public void setMetrics(QueueMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Publish a request to the combiner and wait for it to be applied. If the
+    // combiner has retired this thread's request, register a fresh one. If the
+    // combiner has been stopped, withdraw the request and apply it directly.
+    private Element<E> combine(int operation, Element<E> element) {
+        metrics.onRetry();
+        Request request = threadRequest.get();
+        if (request != null) {
+            request.operation = operation;
+            request.element = element;
+        }
+        if (request == null || !request.state.compareAndSet(IDLE, PENDING)) {
+            request = new Request(Thread.currentThread(), operation, element);
+            threadRequest.set(request);
+            register(request);
+        }
+        combinerThread.wake();
+
+        int spins = 0;
+        while (request.state.get() != DONE) {
+            if (!combinerThread.isRunning && request.state.compareAndSet(PENDING, IDLE)) {
+                return apply(operation, element);
+            }
+            else if (spins < WAIT_SPINS) {
+                spins++;
+                Thread.onSpinWait();
+            }
+            else {
+                LockSupport.parkNanos(this, 1000000L);
             }
         }
 
-        do {
+        Element<E> result = request.element;
+        request.element = null;
+        request.state.set(IDLE);
+
+        return result;
+    }
+
+    // Apply a single operation to the heap, retrying until it succeeds.
+    private Element<E> apply(int operation, Element<E> element) {
+        PersistentHeap<E> currentpQueue;
+        PersistentHeap<E> updatedpQueue;
+
+        while (true) {
             currentpQueue = pQueue.get();
-            updatedpQueue = new Heap<E>(currentpQueue);
+            if (operation == INSERT)
+                updatedpQueue = currentpQueue.insert(element);
+            else
+                updatedpQueue = currentpQueue.removeMin();
 
-            retVal = updatedpQueue.removeMin();
-        }while (!pQueue.compareAndSet(currentpQueue, updatedpQueue));
-        
-        if(retVal == null) return null;
+            if (pQueue.compareAndSet(currentpQueue, updatedpQueue))
+                break;
+            metrics.onCasFailure();
+        }
 
-        return retVal.value;     
+        return (operation == INSERT) ? element : currentpQueue.getMin();
     }
 
-    public void finish() {
-        serverThread.finish();
+    // Push a thread's request onto the publication list.
+    private void register(Request request) {
+        Request head;
+        do {
+            head = requests.get();
+            request.next = head;
+        }while (!requests.compareAndSet(head, request));
     }
 
-    // Server thread that constantly checks elimination array for 
-    // removes and values that need to be added to the skiplist
-    private class Server extends Thread {
+    // A thread's slot in the publication list, reused for all of its operations
+    // until the combiner retires it. The owner is held weakly so that the list
+    // never keeps an exited thread alive.
+    private final class Request {
+        final AtomicInteger state;
+        final WeakReference<Thread> owner;
+        volatile Request next;
+        int operation;
+        Element<E> element;
+
+        // Combiner pass that last claimed this request; only the combiner
+        // touches it
+        long lastPass;
+
+        // A new request is published as soon as it is registered
+        Request(Thread owner, int operation, Element<E> element) {
+            this.owner = new WeakReference<Thread>(owner);
+            this.operation = operation;
+            this.element = element;
+            this.state = new AtomicInteger(PENDING);
+        }
+
+        // Check if the thread that owns this request has exited
+        boolean hasExited() {
+            Thread thread = owner.get();
+
+            return thread == null || !thread.isAlive();
+        }
+    }
+
+    // Combiner thread that drains every pending request in one pass, merges the
+    // inserts into the heap, serves the removes from the result and publishes
+    // it with a single CAS. It backs off and then parks when there is no work.
+    // Like flat combining, it also ages the publication list: every
+    // AGING_PERIOD passes, requests that have not been used for MAX_IDLE_PASSES
+    // passes are retired and unlinked, and their threads register again on
+    // their next request. Requests of exited threads are retired at the same
+    // time, and the list is also aged whenever it has doubled since the last
+    // time, since passes are rare when there is little contention.
+    private class Combiner extends Thread {
+        private static final int SPIN_PASSES = 64;
+        private static final int YIELD_PASSES = 128;
+        private static final int AGING_PERIOD = 1024;
+        private static final int MAX_IDLE_PASSES = 4096;
+        private static final int MIN_AGING_LENGTH = 64;
+
         protected volatile boolean isRunning;
+        private volatile boolean isParked;
+        private ArrayList<Request> claimed;
+        private long passes;
+        private int agingLength = MIN_AGING_LENGTH;
 
-        public Server() {
+        public Combiner() {
             isRunning = true;
+            claimed = new ArrayList<Request>();
+            setDaemon(true);
         }
 
         public void finish() {
             isRunning = false;
+            LockSupport.unpark(this);
         }
-        
+
+        // Wake the combiner if it is parked.
+        public void wake() {
+            if (isParked)
+                LockSupport.unpark(this);
+        }
+
         public void run(){
+            int idlePasses = 0;
             while (isRunning) {
-                Heap<E> currentpQueue;
-                Heap<E> updatedpQueue;
-                CopyOnWriteArrayList<Element<E>> copiedElimination = new CopyOnWriteArrayList<Element<E>>(elimination);
-                for(Element<E> object: copiedElimination) {
-                    if (object.status == REMOVE)
-                    {
-                        do {
-                            currentpQueue = pQueue.get();
-                            updatedpQueue = new Heap<E>(currentpQueue);
-                
-                            updatedpQueue.removeMin();
-                        }while (!pQueue.compareAndSet(currentpQueue, updatedpQueue));
-                        elimination.remove(object);
-                    }
-                    else if (object.status == INSERT){
-                        currentpQueue = pQueue.get();
-                        updatedpQueue = new Heap<E>(currentpQueue);
+                if (combinePass() > 0) {
+                    idlePasses = 0;
+                }
+                else if (idlePasses < SPIN_PASSES) {
+                    idlePasses++;
+                    Thread.onSpinWait();
+                }
+                else if (idlePasses < YIELD_PASSES) {
+                    idlePasses++;
+                    Thread.yield();
+                }
+                else {
+                    // Announce the park before the final check so that a
+                    // request published in between still wakes us up.
+                    isParked = true;
+                    if (!hasPending() && isRunning)
+                        LockSupport.park(this);
+                    isParked = false;
+                }
+            }
+
+            // Serve anything published while we were stopping
+            combinePass();
+        }
+
+        // Check for any pending request.
+        private boolean hasPending() {
+            for (Request request = requests.get(); request != null; request = request.next) {
+                if (request.state.get() == PENDING)
+                    return true;
+            }
+
+            return false;
+        }
+
+        // Claim and apply all pending requests. Returns how many were applied.
+        private int combinePass() {
+            PersistentHeap<E> batch = PersistentHeap.<E>empty();
+            int length = 0;
+            for (Request request = requests.get(); request != null; request = request.next) {
+                length++;
+                if (request.state.get() == PENDING && request.state.compareAndSet(PENDING, CLAIMED)) {
+                    if (request.operation == INSERT)
+                        batch = batch.insert(request.element);
+                    request.lastPass = passes;
+                    claimed.add(request);
+                }
+            }
 
-                        updatedpQueue.insert(object);
+            if (claimed.isEmpty())
+                return 0;
+            passes++;
 
-                        if (pQueue.compareAndSet(currentpQueue, updatedpQueue))
-                            elimination.remove(object);
+            // Removes are served from the merged heap, so they pair off
+            // against the batch's own inserts when those are smaller.
+            PersistentHeap<E> currentpQueue;
+            PersistentHeap<E> updatedpQueue;
+            while (true) {
+                currentpQueue = pQueue.get();
+                updatedpQueue = currentpQueue.merge(batch);
+                for (Request request : claimed) {
+                    if (request.operation == REMOVE) {
+                        request.element = updatedpQueue.getMin();
+                        updatedpQueue = updatedpQueue.removeMin();
                     }
                 }
+
+                if (pQueue.compareAndSet(currentpQueue, updatedpQueue))
+                    break;
+                metrics.onCasFailure();
             }
+
+            int applied = claimed.size();
+            metrics.onCombinerBatch(applied);
+            for (Request request : claimed) {
+                request.state.set(DONE);
+                Thread owner = request.owner.get();
+                if (owner != null)
+                    LockSupport.unpark(owner);
+            }
+            claimed.clear();
+
+            if (passes % AGING_PERIOD == 0 || length > agingLength)
+                agingLength = Math.max(MIN_AGING_LENGTH, 2 * unlinkIdleRequests());
+
+            return applied;
+        }
+
+        // Retire and unlink requests that have sat idle for too long or whose
+        // thread has exited, and return how many are left. A request is
+        // retired with a CAS from IDLE, so its owner either publishes first
+        // and keeps it or fails its own CAS and registers a new one. Only the
+        // combiner unlinks past the head, so a retired request is cut out by
+        // relinking its predecessor; the head is swapped with a CAS and left
+        // for a later pass if a push beats it.
+        private int unlinkIdleRequests() {
+            int length = 0;
+            Request previous = null;
+            Request request = requests.get();
+            while (request != null) {
+                Request next = request.next;
+                boolean retired = request.state.get() == RETIRED
+                    || ((passes - request.lastPass > MAX_IDLE_PASSES || request.hasExited())
+                        && request.state.compareAndSet(IDLE, RETIRED));
+
+                if (retired && previous == null && requests.compareAndSet(request, next)) {
+                    request = next;
+                    continue;
+                }
+                if (retired && previous != null) {
+                    previous.next = next;
+                    request = next;
+                    continue;
+                }
+
+                length++;
+                previous = request;
+                request = next;
+            }
+
+            return length;
         }
     }
 }
@@ -0,0 +1,51 @@
+// A bounded, single-threaded pool of Element records used by the ECPriorityQueue.
+
+package prioritetsko;
+
+// A stack of spare Element records owned by one thread. Elements come back to
+// the pool of whichever thread retrieved them, so a thread that only inserts
+// drains its pool and allocates, while one that only retrieves fills its pool up
+// to the capacity and drops the rest. A thread that both inserts and retrieves
+// reaches a steady state where it allocates no Element records at all.
+final class ElementPool<E extends Comparable<E>> {
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private final Element<E>[] elements;
+    private int count;
+
+    // Create an empty pool with the default capacity.
+    public ElementPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // Create an empty pool that holds up to capacity spare elements.
+    @SuppressWarnings("unchecked")
+    public ElementPool(int capacity) {
+        elements = (Element<E>[]) new Element<?>[capacity];
+        count = 0;
+    }
+
+    // Get an element holding the given fields, reusing a spare one if possible.
+    public Element<E> acquire(E value, int status, int priority) {
+        if (count == 0) {
+            return new Element<E>(value, status, priority);
+        }
+
+        Element<E> element = elements[--count];
+        elements[count] = null;
+        element.value = value;
+        element.status = status;
+        element.priority = priority;
+
+        return element;
+    }
+
+    // Give back an element that is no longer in any queue, elimination slot or
+    // request. It is dropped if the pool is full.
+    public void release(Element<E> element) {
+        element.value = null;
+        if (count < elements.length) {
+            elements[count++] = element;
+        }
+    }
+}
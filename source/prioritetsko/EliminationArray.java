@@ -0,0 +1,115 @@
+// Fixed-slot elimination array used by the ECPriorityQueue.
+
+package prioritetsko;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// An array of atomic slots where an inserter holding a new minimum waits for a
+// concurrent remover to take its element directly. A matched pair never touches
+// the heap and allocates nothing. The active width of the array grows when
+// inserters collide on slots and shrinks when offers time out unmatched. A
+// remover leaves a marker in the slot it took from, and only the inserter clears
+// it, so an element that is recycled and offered again cannot be mistaken for
+// the one still waiting there.
+final class EliminationArray<E extends Comparable<E>> {
+    private static final int DEFAULT_SPINS = 128;
+
+    @SuppressWarnings("rawtypes")
+    private static final Element TAKEN = new Element<>(null, 0, 0);
+
+    private final AtomicReferenceArray<Element<E>> slots;
+    private final int capacity;
+    private final int spins;
+    private volatile int width;
+
+    // Create an elimination array sized to the number of processors.
+    public EliminationArray() {
+        this(Math.max(2, Runtime.getRuntime().availableProcessors()), DEFAULT_SPINS);
+    }
+
+    // Create an elimination array with a fixed capacity and offer timeout.
+    public EliminationArray(int capacity, int spins) {
+        if (capacity < 1 || spins < 1) {
+            throw new IllegalArgumentException("Capacity and spins must be positive.");
+        }
+        this.slots = new AtomicReferenceArray<Element<E>>(capacity);
+        this.capacity = capacity;
+        this.spins = spins;
+        this.width = 1;
+    }
+
+    // Offer an element to a remover. Returns true if a remover took it, or false
+    // if the offer timed out and the element must be inserted some other way.
+    public boolean offer(Element<E> element) {
+        int slot = ThreadLocalRandom.current().nextInt(width);
+
+        // Another inserter already owns this slot, so the array is too narrow.
+        if (!slots.compareAndSet(slot, null, element)) {
+            grow();
+            return false;
+        }
+
+        // Wait a bounded time for a remover to take the element.
+        for (int spin = 0; spin < spins; spin++) {
+            if (slots.get(slot) != element) {
+                slots.set(slot, null);
+                return true;
+            }
+            Thread.onSpinWait();
+        }
+
+        // Withdraw the offer. If the withdrawal fails, a remover got there first.
+        if (slots.compareAndSet(slot, element, null)) {
+            shrink();
+            return false;
+        }
+        slots.set(slot, null);
+
+        return true;
+    }
+
+    // Take an offered element that beats the given heap minimum, or any offered
+    // element if the minimum is null. Returns null if nothing suitable is offered.
+    @SuppressWarnings("unchecked")
+    public Element<E> take(Element<E> minimum) {
+        int currentWidth = width;
+        int start = ThreadLocalRandom.current().nextInt(currentWidth);
+
+        for (int offset = 0; offset < currentWidth; offset++) {
+            int slot = (start + offset) % currentWidth;
+            Element<E> candidate = slots.get(slot);
+
+            if (candidate != null
+                && candidate != TAKEN
+                && (minimum == null || candidate.priority < minimum.priority)
+                && slots.compareAndSet(slot, candidate, TAKEN)) {
+
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+
+    // Get the number of slots currently in use.
+    public int width() {
+        return width;
+    }
+
+    // Widen the array after a collision.
+    private void grow() {
+        int currentWidth = width;
+        if (currentWidth < capacity) {
+            width = currentWidth + 1;
+        }
+    }
+
+    // Narrow the array after an unmatched offer.
+    private void shrink() {
+        int currentWidth = width;
+        if (currentWidth > 1) {
+            width = currentWidth - 1;
+        }
+    }
+}
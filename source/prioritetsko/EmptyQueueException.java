@@ -5,6 +5,7 @@ package prioritetsko;
 
 // An exception class that indicates a queue is empty.
 public class EmptyQueueException extends Exception {
+    private static final long serialVersionUID = 1L;
 
     // Create a new EmptyQueueException with a message.
     public EmptyQueueException(String message) {
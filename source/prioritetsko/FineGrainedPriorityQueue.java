@@ -0,0 +1,356 @@
+// A concurrent heap with a lock per slot, after Hunt, Michael, Parthasarathy
+// and Scott.
+
+package prioritetsko;
+
+import java.lang.Comparable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Provides a concurrent array-based heap where every slot has its own lock and
+// a tag. Insertions sift up bottom-to-top and retrievals sift down top-to-bottom,
+// both taking locks parent first, so operations in disjoint subtrees proceed at
+// the same time. A slot's tag says whether it is empty, holds a settled element,
+// or holds an element that its inserting thread is still moving up. Slots are
+// numbered from 1 and a separate lock guards the size. Insertions are spread
+// across the bottom level by bit-reversed positions so that consecutive
+// operations work in different subtrees.
+//
+// Each level of the tree keeps its locks, tags and elements in arrays of its
+// own, and a level is allocated under the size lock when the first insertion
+// reaches it. Growing never moves a slot that another thread may hold locked,
+// so the heap needs no capacity up front and only pays for the levels it has
+// filled.
+//
+// A lock holder that has been descheduled would leave the threads waiting on
+// it spinning for their whole time slice, and an insertion blocked behind
+// another one that is still moving up could keep taking the same two locks
+// ahead of it. Waiting therefore yields after a short spin, and an insertion
+// that cannot move yields before trying again, so that on few cores the thread
+// it waits for gets to run.
+public class FineGrainedPriorityQueue
+    <E extends Comparable<E>>
+    implements PriorityQueue<E> {
+
+    // Slots are ints, so the deepest level starts at 1 << 30.
+    private static final int LEVELS = 31;
+    private static final int LOCK_SPINS = 64;
+
+    private static final int EMPTY = 0;
+    private static final int AVAILABLE = 1;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger(AVAILABLE + 1);
+    private static final ThreadLocal<Integer> threadTag = ThreadLocal.withInitial(
+        threadCounter::getAndIncrement
+    );
+
+    private final int capacity;
+    private final AtomicReferenceArray<Level> levels;
+    private final AtomicInteger sizeLock;
+    private int size;
+
+    // Create a new, empty priority queue that grows as needed.
+    public FineGrainedPriorityQueue() {
+        this(Integer.MAX_VALUE);
+    }
+
+    // Create a new, empty priority queue that holds up to capacity elements.
+    public FineGrainedPriorityQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive.");
+        }
+        this.capacity = capacity;
+        levels = new AtomicReferenceArray<Level>(LEVELS);
+        sizeLock = new AtomicInteger();
+        size = 0;
+    }
+
+    @Override
+    // Add an element to the priority queue.
+    public void insert(E element) {
+        int tag = threadTag.get();
+
+        // Claim the next bottom slot while holding the size lock, allocating
+        // its level if this is the first slot there.
+        lockSize();
+        if (size == capacity) {
+            unlockSize();
+            throw new IllegalStateException("The priority queue is full!");
+        }
+        int currentIndex = getPosition(++size);
+        int level = getLevel(currentIndex);
+        if (levels.get(level) == null) {
+            levels.set(level, new Level(1 << level));
+        }
+        lock(currentIndex);
+        unlockSize();
+        setElement(currentIndex, element);
+        setTag(currentIndex, tag);
+        unlock(currentIndex);
+
+        // Move the element up. A retrieval may move it first, in which case the
+        // tag no longer matches and the element is followed up the tree.
+        while (currentIndex > 1) {
+            int parentIndex = currentIndex >>> 1;
+            int lockedIndex = currentIndex;
+            boolean blocked = false;
+            lock(parentIndex);
+            lock(currentIndex);
+
+            if (getTag(parentIndex) == AVAILABLE && getTag(currentIndex) == tag) {
+                if (isLess(currentIndex, parentIndex)) {
+                    swap(currentIndex, parentIndex);
+                    currentIndex = parentIndex;
+                }
+                else {
+                    setTag(currentIndex, AVAILABLE);
+                    currentIndex = 0;
+                }
+            }
+            else if (getTag(parentIndex) == EMPTY) {
+                currentIndex = 0;
+            }
+            else if (getTag(currentIndex) != tag) {
+                currentIndex = parentIndex;
+            }
+            else {
+                blocked = true;
+            }
+
+            unlock(lockedIndex);
+            unlock(parentIndex);
+
+            // The parent is another insertion's element, still on its way up.
+            if (blocked) {
+                Thread.yield();
+            }
+        }
+
+        if (currentIndex == 1) {
+            lock(1);
+            if (getTag(1) == tag) {
+                setTag(1, AVAILABLE);
+            }
+            unlock(1);
+        }
+    }
+
+    @Override
+    // Get and remove the element at the front of the priority queue.
+    public E retrieve() throws EmptyQueueException {
+
+        // Take the element in the last bottom slot while holding the size lock.
+        lockSize();
+        if (size == 0) {
+            unlockSize();
+            throw new EmptyQueueException("The priority queue is empty!");
+        }
+        int bottomIndex = getPosition(size--);
+        lock(bottomIndex);
+        unlockSize();
+        Object bottomElement = getElement(bottomIndex);
+        setElement(bottomIndex, null);
+        setTag(bottomIndex, EMPTY);
+        unlock(bottomIndex);
+
+        // If the root is now empty, the bottom element was the only one.
+        lock(1);
+        if (getTag(1) == EMPTY) {
+            unlock(1);
+            return cast(bottomElement);
+        }
+        Object retrievedElement = getElement(1);
+        setElement(1, bottomElement);
+        setTag(1, AVAILABLE);
+
+        // Move the bottom element down, locking each pair of children. Both
+        // children are in the same level, so they exist together.
+        int currentIndex = 1;
+        while (hasChildren(currentIndex)) {
+            int leftChildIndex = currentIndex << 1;
+            int rightChildIndex = leftChildIndex + 1;
+            lock(leftChildIndex);
+            lock(rightChildIndex);
+
+            int childIndex;
+            if (getTag(leftChildIndex) == EMPTY) {
+                unlock(rightChildIndex);
+                unlock(leftChildIndex);
+                break;
+            }
+            else if (getTag(rightChildIndex) == EMPTY || isLess(leftChildIndex, rightChildIndex)) {
+                unlock(rightChildIndex);
+                childIndex = leftChildIndex;
+            }
+            else {
+                unlock(leftChildIndex);
+                childIndex = rightChildIndex;
+            }
+
+            if (isLess(childIndex, currentIndex)) {
+                swap(childIndex, currentIndex);
+                unlock(currentIndex);
+                currentIndex = childIndex;
+            }
+            else {
+                unlock(childIndex);
+                break;
+            }
+        }
+        unlock(currentIndex);
+
+        return cast(retrievedElement);
+    }
+
+    // Check if the priority queue is empty.
+    public boolean isEmpty() {
+        lockSize();
+        boolean empty = (size == 0);
+        unlockSize();
+
+        return empty;
+    }
+
+    // Get the size of the priority queue.
+    public int size() {
+        lockSize();
+        int currentSize = size;
+        unlockSize();
+
+        return currentSize;
+    }
+
+    @Override
+    // Only necessary to match the priority queue interface.
+    public void finish() {}
+
+    // Get the slot for the nth element: the same level as n, with the offset
+    // into the level bit-reversed.
+    private static int getPosition(int count) {
+        int levelStart = Integer.highestOneBit(count);
+        int levelBits = Integer.numberOfTrailingZeros(levelStart);
+        if (levelBits == 0) {
+            return count;
+        }
+        int offset = count - levelStart;
+
+        return levelStart | (Integer.reverse(offset) >>> (Integer.SIZE - levelBits));
+    }
+
+    // Get the level of a slot, where the root is level 0.
+    private static int getLevel(int index) {
+        return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(index);
+    }
+
+    // Get the position of a slot within its level.
+    private static int getOffset(int index) {
+        return index - Integer.highestOneBit(index);
+    }
+
+    // Check if the level below a slot has been allocated.
+    private boolean hasChildren(int index) {
+        int childLevel = getLevel(index) + 1;
+
+        return childLevel < LEVELS && levels.get(childLevel) != null;
+    }
+
+    // Wait until the size lock is acquired.
+    private void lockSize() {
+        int spins = 0;
+        while (!sizeLock.compareAndSet(0, 1)) {
+            spins = backOff(spins);
+        }
+    }
+
+    // Release the size lock.
+    private void unlockSize() {
+        sizeLock.set(0);
+    }
+
+    // Wait until the lock for a slot is acquired.
+    private void lock(int index) {
+        AtomicIntegerArray locks = levels.get(getLevel(index)).locks;
+        int offset = getOffset(index);
+        int spins = 0;
+        while (!locks.compareAndSet(offset, 0, 1)) {
+            spins = backOff(spins);
+        }
+    }
+
+    // Spin briefly, then yield on every later attempt. Returns the new count.
+    private static int backOff(int spins) {
+        if (spins < LOCK_SPINS) {
+            Thread.onSpinWait();
+            return spins + 1;
+        }
+        Thread.yield();
+
+        return spins;
+    }
+
+    // Release the lock for a slot.
+    private void unlock(int index) {
+        levels.get(getLevel(index)).locks.set(getOffset(index), 0);
+    }
+
+    // Get a slot's element. The slot must be locked, as for the accessors below.
+    private Object getElement(int index) {
+        return levels.get(getLevel(index)).elements[getOffset(index)];
+    }
+
+    // Set a slot's element.
+    private void setElement(int index, Object element) {
+        levels.get(getLevel(index)).elements[getOffset(index)] = element;
+    }
+
+    // Get a slot's tag.
+    private int getTag(int index) {
+        return levels.get(getLevel(index)).tags[getOffset(index)];
+    }
+
+    // Set a slot's tag.
+    private void setTag(int index, int tag) {
+        levels.get(getLevel(index)).tags[getOffset(index)] = tag;
+    }
+
+    // Check if one slot's element is smaller than another's. Both slots must be
+    // locked.
+    private boolean isLess(int firstIndex, int secondIndex) {
+        E firstElement = cast(getElement(firstIndex));
+        E secondElement = cast(getElement(secondIndex));
+
+        return firstElement.compareTo(secondElement) < 0;
+    }
+
+    // Swap the elements and tags of two slots. Both slots must be locked.
+    private void swap(int firstIndex, int secondIndex) {
+        Object element = getElement(firstIndex);
+        setElement(firstIndex, getElement(secondIndex));
+        setElement(secondIndex, element);
+
+        int tag = getTag(firstIndex);
+        setTag(firstIndex, getTag(secondIndex));
+        setTag(secondIndex, tag);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E cast(Object element) {
+        return (E) element;
+    }
+
+    // The locks, tags and elements of one level of the tree. The members are
+    // package-private because the Deuce agent drops the nestmate attributes
+    // that would let the queue reach private ones.
+    static final class Level {
+        final Object[] elements;
+        final int[] tags;
+        final AtomicIntegerArray locks;
+
+        Level(int length) {
+            elements = new Object[length];
+            tags = new int[length];
+            locks = new AtomicIntegerArray(length);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+// A flat-combining priority queue built on the sequential priority queue.
+
+package prioritetsko;
+
+import java.lang.Comparable;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Provides a flat-combining priority queue. Instead of every thread taking the
+// lock in turn, each thread publishes its request in its own record and then
+// either waits for the request to be served or takes the lock itself. The
+// lock holder serves every published request in one pass over a private
+// sequential heap, so the heap stays in one core's cache. Retrievals in a
+// pass are paired with smaller insertions from the same pass without touching
+// the heap at all. Waiters spin for a while and then park until the combiner
+// wakes them. Every so often the combiner unlinks records that have not been
+// used for a long time, and their owners push them back on their next request.
+public class FlatCombiningPriorityQueue
+    <E extends Comparable<E>>
+    implements PriorityQueue<E> {
+
+    private static final int IDLE = 0;
+    private static final int INSERT = 1;
+    private static final int RETRIEVE = 2;
+    private static final int DONE = 3;
+
+    private static final int WAIT_SPINS = 64;
+    private static final long PARK_NANOS = 100000L;
+    private static final int AGING_PERIOD = 1024;
+    private static final int MAX_IDLE_PASSES = 4096;
+
+    private final SequentialPriorityQueue<E> heap;
+    private final AtomicBoolean lock;
+    private final AtomicReference<Record<E>> records;
+    private final ThreadLocal<Record<E>> threadRecord;
+    private volatile QueueMetrics metrics = QueueMetrics.NONE;
+
+    // Scratch space for the combiner, only touched while holding the lock.
+    private final ArrayList<Record<E>> inserts;
+    private final ArrayList<Record<E>> retrieves;
+    private final ArrayList<E> remainingInserts;
+    private long passes;
+
+    // Create a new, empty priority queue.
+    public FlatCombiningPriorityQueue() {
+        heap = new SequentialPriorityQueue<E>();
+        lock = new AtomicBoolean();
+        records = new AtomicReference<Record<E>>();
+        threadRecord = ThreadLocal.withInitial(this::register);
+
+        inserts = new ArrayList<Record<E>>();
+        retrieves = new ArrayList<Record<E>>();
+        remainingInserts = new ArrayList<E>();
+    }
+
+    @Override
+    // Add an element to the priority queue.
+    public void insert(E element) {
+        Record<E> record = threadRecord.get();
+        record.element = element;
+        record.state = INSERT;
+
+        waitForCombiner(record);
+        record.element = null;
+    }
+
+    @Override
+    // Get and remove the element at the front of the priority queue.
+    public E retrieve() throws EmptyQueueException {
+        Record<E> record = threadRecord.get();
+        record.state = RETRIEVE;
+
+        waitForCombiner(record);
+
+        E retrievedElement = record.element;
+        record.element = null;
+        if (retrievedElement == null) {
+            throw new EmptyQueueException("The priority queue is empty!");
+        }
+
+        return retrievedElement;
+    }
+
+    @Override
+    // Only necessary to match the priority queue interface.
+    public void finish() {}
+
+    // Report combiner batches and eliminated retrievals to the given metrics.
+    public void setMetrics(QueueMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Wait until the record is served, becoming the combiner whenever the lock
+    // is free. The record goes back on the list if it was aged out. A waiter
+    // announces itself before parking and the combiner reads that after
+    // marking the record done, so one of them always sees the other; the park
+    // is still bounded so that a waiter notices when the lock is free.
+    private void waitForCombiner(Record<E> record) {
+        int spins = 0;
+        while (record.state != DONE) {
+            if (!record.active) {
+                record.active = true;
+                push(record);
+            }
+
+            if (!lock.get() && lock.compareAndSet(false, true)) {
+                try {
+                    combine();
+                }
+                finally {
+                    lock.set(false);
+                }
+            }
+            else if (spins < WAIT_SPINS) {
+                spins++;
+                Thread.onSpinWait();
+            }
+            else {
+                record.waiter = Thread.currentThread();
+                if (record.state != DONE) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                record.waiter = null;
+            }
+        }
+
+        record.state = IDLE;
+    }
+
+    // Serve every published request. Must be called while holding the lock.
+    // No record is marked done until the whole pass is over, so no owner can
+    // publish a new request into a pass that is still running.
+    private void combine() {
+        passes++;
+        for (Record<E> record = records.get(); record != null; record = record.next) {
+            int state = record.state;
+            if (state == INSERT) {
+                record.eliminated = false;
+                record.lastPass = passes;
+                inserts.add(record);
+            }
+            else if (state == RETRIEVE) {
+                record.lastPass = passes;
+                retrieves.add(record);
+            }
+        }
+
+        // Serve each retrieval from the smaller of the smallest pending
+        // insertion and the front of the heap.
+        for (Record<E> retrieve : retrieves) {
+            Record<E> smallestInsert = null;
+            for (Record<E> insert : inserts) {
+                if (!insert.eliminated
+                    && (smallestInsert == null
+                        || insert.element.compareTo(smallestInsert.element) < 0)) {
+
+                    smallestInsert = insert;
+                }
+            }
+
+            E front = null;
+            try {
+                front = heap.peek();
+            }
+            catch (EmptyQueueException exception) {
+            }
+
+            if (smallestInsert != null
+                && (front == null || smallestInsert.element.compareTo(front) <= 0)) {
+
+                retrieve.element = smallestInsert.element;
+                smallestInsert.eliminated = true;
+                metrics.onElimination(true);
+            }
+            else if (front != null) {
+                try {
+                    retrieve.element = heap.retrieve();
+                }
+                catch (EmptyQueueException exception) {
+                }
+                metrics.onElimination(false);
+            }
+            else {
+                retrieve.element = null;
+                metrics.onElimination(false);
+            }
+        }
+
+        // Whatever was not eliminated goes into the heap in one bulk insert.
+        for (Record<E> insert : inserts) {
+            if (!insert.eliminated) {
+                remainingInserts.add(insert.element);
+            }
+        }
+        if (!remainingInserts.isEmpty()) {
+            heap.insert(remainingInserts);
+        }
+        if (!inserts.isEmpty() || !retrieves.isEmpty()) {
+            metrics.onCombinerBatch(inserts.size() + retrieves.size());
+        }
+
+        for (Record<E> insert : inserts) {
+            markDone(insert);
+        }
+        for (Record<E> retrieve : retrieves) {
+            markDone(retrieve);
+        }
+
+        inserts.clear();
+        retrieves.clear();
+        remainingInserts.clear();
+
+        if (passes % AGING_PERIOD == 0) {
+            unlinkIdleRecords();
+        }
+    }
+
+    // Mark a record as served and wake its owner if it is parked.
+    private void markDone(Record<E> record) {
+        record.state = DONE;
+        Thread waiter = record.waiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    // Unlink every idle record that has not been served for MAX_IDLE_PASSES
+    // passes. Must be called while holding the lock, so this is the only
+    // thread changing links past the head. The head is never unlinked, since
+    // pushes race on it. A record is only marked inactive once it is off the
+    // list, so its owner cannot push it back while it is still linked.
+    private void unlinkIdleRecords() {
+        Record<E> previous = records.get();
+        Record<E> record = previous.next;
+        while (record != null) {
+            Record<E> next = record.next;
+            if (record.state == IDLE && passes - record.lastPass > MAX_IDLE_PASSES) {
+                previous.next = next;
+                record.active = false;
+            }
+            else {
+                previous = record;
+            }
+            record = next;
+        }
+    }
+
+    // Create this thread's record and push it onto the publication list.
+    private Record<E> register() {
+        Record<E> record = new Record<E>();
+        record.active = true;
+        push(record);
+
+        return record;
+    }
+
+    // Push a record onto the publication list.
+    private void push(Record<E> record) {
+        Record<E> head;
+        do {
+            head = records.get();
+            record.next = head;
+        } while (!records.compareAndSet(head, record));
+    }
+
+    // A thread's published request. The state is written last by the owner
+    // when publishing and last by the combiner when serving. The combiner
+    // clears active once it has unlinked the record. The class is
+    // package-private so that its implicit constructor is too, since the Deuce
+    // agent drops the nestmate attributes that would allow private access.
+    static final class Record<E> {
+        volatile int state = IDLE;
+        volatile Record<E> next;
+        volatile boolean active;
+        volatile Thread waiter;
+        E element;
+        boolean eliminated;
+        long lastPass;
+    }
+}
@@ -0,0 +1,491 @@
+// A software transactional memory priority queue with a retry budget and a
+// global lock to fall back on.
+
+package prioritetsko;
+
+import org.deuce.Atomic;
+import java.util.List;
+import java.util.ArrayList;
+import java.lang.Comparable;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ThreadLocalRandom;
+import org.deuce.transaction.TransactionException;
+
+// Provides a transactional priority queue with contention management. Each
+// operation is tried as a single-attempt transaction, with randomized
+// exponential backoff between attempts. Once an operation has used up its
+// retry budget, it takes a global lock and runs without a transaction. Every
+// attempt, read-only ones included, registers in a counter of active
+// transactions and then checks the fallback flag; the lock holder raises the
+// flag and then waits for that counter to drain. One of the two always sees
+// the other, so the fallback never overlaps a transaction that is still
+// reading or writing back, and no new transaction starts until it is done.
+// Aborts and fallbacks are counted per kind of operation.
+public class HybridSTMPriorityQueue
+    <E extends Comparable<E>>
+    extends SequentialPriorityQueue<E> {
+
+    // Kinds of operation that aborts and fallbacks are counted under.
+    public static final int INSERT = 0;
+    public static final int RETRIEVE = 1;
+    public static final int READ = 2;
+    public static final int BULK = 3;
+
+    private static final int DEFAULT_RETRY_BUDGET = 8;
+    private static final int MIN_BACKOFF_SPINS = 16;
+    private static final int MAX_BACKOFF_SPINS = 1 << 14;
+
+    private final int retryBudget;
+    private final ReentrantLock fallbackLock;
+    private final LongAdder[] aborts;
+    private final LongAdder[] fallbacks;
+    private final AtomicInteger activeTransactions;
+    private volatile boolean fallbackActive;
+    private volatile QueueMetrics metrics = QueueMetrics.NONE;
+
+    // Create a new, empty priority queue with the default retry budget.
+    public HybridSTMPriorityQueue() {
+        this(DEFAULT_RETRY_BUDGET);
+    }
+
+    // Create a new, empty priority queue that gives each operation retryBudget
+    // transactional attempts before it falls back to the global lock.
+    public HybridSTMPriorityQueue(int retryBudget) {
+        super();
+        if (retryBudget < 0) {
+            throw new IllegalArgumentException("The retry budget cannot be negative.");
+        }
+        this.retryBudget = retryBudget;
+        fallbackLock = new ReentrantLock();
+        aborts = new LongAdder[BULK + 1];
+        fallbacks = new LongAdder[BULK + 1];
+        for (int kind = INSERT; kind <= BULK; kind++) {
+            aborts[kind] = new LongAdder();
+            fallbacks[kind] = new LongAdder();
+        }
+        activeTransactions = new AtomicInteger();
+        fallbackActive = false;
+    }
+
+    @Override
+    // Add an element to the priority queue.
+    public void insert(E element) {
+        executeUnchecked(INSERT, new Operation<Void>() {
+            @Override
+            public Void attempt() {
+                atomicInsert(element);
+                return null;
+            }
+
+            @Override
+            public Void fallback() {
+                HybridSTMPriorityQueue.super.insert(element);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    // Add a collection of elements to the priority queue.
+    public void insert(Collection<? extends E> collection) {
+        executeUnchecked(BULK, new Operation<Void>() {
+            @Override
+            public Void attempt() {
+                atomicInsert(collection);
+                return null;
+            }
+
+            @Override
+            public Void fallback() {
+                HybridSTMPriorityQueue.super.insert(collection);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    // Add a collection of elements. Pool threads cannot join a transaction, so
+    // the heap is rebuilt on this thread.
+    public void insertParallel(Collection<? extends E> collection, ForkJoinPool pool) {
+        insert(collection);
+    }
+
+    @Override
+    // Get and remove the element at the front of the priority queue.
+    public E retrieve() throws EmptyQueueException {
+        return execute(RETRIEVE, new Operation<E>() {
+            @Override
+            public E attempt() throws EmptyQueueException {
+                return atomicRetrieve();
+            }
+
+            @Override
+            public E fallback() throws EmptyQueueException {
+                return HybridSTMPriorityQueue.super.retrieve();
+            }
+        });
+    }
+
+    @Override
+    // Get and remove up to count elements from the front of the priority queue.
+    public List<E> retrieve(int count) throws EmptyQueueException {
+        return execute(BULK, new Operation<List<E>>() {
+            @Override
+            public List<E> attempt() throws EmptyQueueException {
+                return atomicRetrieve(count);
+            }
+
+            @Override
+            public List<E> fallback() throws EmptyQueueException {
+                return HybridSTMPriorityQueue.super.retrieve(count);
+            }
+        });
+    }
+
+    @Override
+    // Move up to maxElements elements into a collection.
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        return executeUnchecked(BULK, new Operation<Integer>() {
+            // The collection is not transactional, so an aborted attempt
+            // must not touch it: drain into a scratch list and hand the
+            // elements over once the transaction has committed.
+            @Override
+            public Integer attempt() {
+                List<E> drainedElements = new ArrayList<E>();
+                int drainedCount = atomicDrainTo(drainedElements, maxElements);
+                collection.addAll(drainedElements);
+
+                return drainedCount;
+            }
+
+            @Override
+            public Integer fallback() {
+                return HybridSTMPriorityQueue.super.drainTo(collection, maxElements);
+            }
+        });
+    }
+
+    @Override
+    // Get and remove every element in priority order.
+    public List<E> drainSorted() {
+        return executeUnchecked(BULK, new Operation<List<E>>() {
+            @Override
+            public List<E> attempt() {
+                return atomicDrainSorted();
+            }
+
+            @Override
+            public List<E> fallback() {
+                return HybridSTMPriorityQueue.super.drainSorted();
+            }
+        });
+    }
+
+    @Override
+    // Get the element at the front of the priority queue.
+    public E peek() throws EmptyQueueException {
+        return execute(READ, new Operation<E>() {
+            @Override
+            public E attempt() throws EmptyQueueException {
+                return atomicPeek();
+            }
+
+            @Override
+            public E fallback() throws EmptyQueueException {
+                return HybridSTMPriorityQueue.super.peek();
+            }
+        });
+    }
+
+    @Override
+    // Check if the priority queue is empty.
+    public boolean isEmpty() {
+        return executeUnchecked(READ, new Operation<Boolean>() {
+            @Override
+            public Boolean attempt() {
+                return atomicIsEmpty();
+            }
+
+            @Override
+            public Boolean fallback() {
+                return HybridSTMPriorityQueue.super.isEmpty();
+            }
+        });
+    }
+
+    @Override
+    // Get a string representation of this priority queue.
+    public String toString() {
+        return executeUnchecked(READ, new Operation<String>() {
+            @Override
+            public String attempt() {
+                return atomicToString();
+            }
+
+            @Override
+            public String fallback() {
+                return HybridSTMPriorityQueue.super.toString();
+            }
+        });
+    }
+
+    @Override
+    // Clear out the priority queue.
+    public void clear() {
+        executeUnchecked(BULK, new Operation<Void>() {
+            @Override
+            public Void attempt() {
+                atomicClear();
+                return null;
+            }
+
+            @Override
+            public Void fallback() {
+                HybridSTMPriorityQueue.super.clear();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    // Get the size of the priority queue.
+    public int size() {
+        return executeUnchecked(READ, new Operation<Integer>() {
+            @Override
+            public Integer attempt() {
+                return atomicSize();
+            }
+
+            @Override
+            public Integer fallback() {
+                return HybridSTMPriorityQueue.super.size();
+            }
+        });
+    }
+
+    // Get the number of aborted transactions for a kind of operation.
+    public long getAborts(int kind) {
+        return aborts[kind].sum();
+    }
+
+    // Get the number of operations of a kind that fell back to the global lock.
+    public long getFallbacks(int kind) {
+        return fallbacks[kind].sum();
+    }
+
+    // Report aborts and fallbacks to the given metrics, on top of the counters
+    // kept per kind of operation.
+    public void setMetrics(QueueMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Try an operation as a transaction until the retry budget runs out, then
+    // run it under the global lock.
+    private <T> T execute(int kind, Operation<T> operation) throws EmptyQueueException {
+
+        int backoffSpins = MIN_BACKOFF_SPINS;
+        for (int attempt = 0; attempt < retryBudget; attempt++) {
+
+            enterTransaction();
+            try {
+                return operation.attempt();
+            }
+            catch (TransactionException exception) {
+                aborts[kind].increment();
+                metrics.onAbort();
+            }
+            finally {
+                activeTransactions.decrementAndGet();
+            }
+
+            int spins = ThreadLocalRandom.current().nextInt(backoffSpins);
+            for (int spin = 0; spin < spins; spin++) {
+                Thread.onSpinWait();
+            }
+            backoffSpins = Math.min(backoffSpins * 2, MAX_BACKOFF_SPINS);
+        }
+
+        fallbacks[kind].increment();
+        metrics.onFallback();
+        fallbackLock.lock();
+        try {
+            fallbackActive = true;
+            try {
+                while (activeTransactions.get() != 0) {
+                    Thread.onSpinWait();
+                }
+                return operation.fallback();
+            }
+            finally {
+                fallbackActive = false;
+            }
+        }
+        finally {
+            fallbackLock.unlock();
+        }
+    }
+
+    // Register this thread as running a transaction, waiting first for any
+    // fallback in progress. The counter is raised before the flag is read, so
+    // a fallback that raises its flag afterwards is sure to wait for us.
+    private void enterTransaction() {
+        while (true) {
+            activeTransactions.incrementAndGet();
+            if (!fallbackActive) {
+                return;
+            }
+            activeTransactions.decrementAndGet();
+            while (fallbackActive) {
+                Thread.yield();
+            }
+        }
+    }
+
+    // Run an operation that cannot throw an EmptyQueueException.
+    private <T> T executeUnchecked(int kind, Operation<T> operation) {
+        try {
+            return execute(kind, operation);
+        }
+        catch (EmptyQueueException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    // The transactional attempts below are package-private because the Deuce
+    // agent drops the nestmate attributes that would let the operation classes
+    // call private methods.
+
+    @Atomic(retries = 1)
+    // Insert an element in one transactional attempt.
+    void atomicInsert(E element) {
+        try {
+            super.insert(element);
+        }
+        catch (NullPointerException | IndexOutOfBoundsException exception) {
+            throw new TransactionException();
+        }
+    }
+
+    @Atomic(retries = 1)
+    // Insert a bunch of elements in one transactional attempt.
+    void atomicInsert(Collection<? extends E> collection) {
+        try {
+            super.insert(collection);
+        }
+        catch (NullPointerException | IndexOutOfBoundsException exception) {
+            throw new TransactionException();
+        }
+    }
+
+    @Atomic(retries = 1)
+    // Retrieve an element in one transactional attempt.
+    E atomicRetrieve() throws EmptyQueueException {
+        try {
+            return super.retrieve();
+        }
+        catch (NullPointerException | IndexOutOfBoundsException exception) {
+            throw new TransactionException();
+        }
+    }
+
+    @Atomic(retries = 1)
+    // Retrieve up to count elements in one transactional attempt.
+    List<E> atomicRetrieve(int count) throws EmptyQueueException {
+        try {
+            return super.retrieve(count);
+        }
+        catch (NullPointerException | IndexOutOfBoundsException exception) {
+            throw new TransactionException();
+        }
+    }
+
+    @Atomic(retries = 1)
+    // Drain up to maxElements elements in one transactional attempt.
+    int atomicDrainTo(Collection<? super E> collection, int maxElements) {
+        try {
+            return super.drainTo(collection, maxElements);
+        }
+        catch (NullPointerException | IndexOutOfBoundsException exception) {
+            throw new TransactionException();
+        }
+    }
+
+    @Atomic(retries = 1)
+    // Drain every element in order in one transactional attempt.
+    List<E> atomicDrainSorted() {
+        try {
+            return super.drainSorted();
+        }
+        catch (NullPointerException | IndexOutOfBoundsException exception) {
+            throw new TransactionException();
+        }
+    }
+
+    @Atomic(retries = 1)
+    // Peek at the front element in one transactional attempt.
+    E atomicPeek() throws EmptyQueueException {
+        try {
+            return super.peek();
+        }
+        catch (NullPointerException | IndexOutOfBoundsException exception) {
+            throw new TransactionException();
+        }
+    }
+
+    @Atomic(retries = 1)
+    // Check for emptiness in one transactional attempt.
+    boolean atomicIsEmpty() {
+        try {
+            return super.isEmpty();
+        }
+        catch (NullPointerException | IndexOutOfBoundsException exception) {
+            throw new TransactionException();
+        }
+    }
+
+    @Atomic(retries = 1)
+    // Get this queue as a string in one transactional attempt.
+    String atomicToString() {
+        try {
+            return super.toString();
+        }
+        catch (NullPointerException | IndexOutOfBoundsException exception) {
+            throw new TransactionException();
+        }
+    }
+
+    @Atomic(retries = 1)
+    // Empty the queue in one transactional attempt.
+    void atomicClear() {
+        try {
+            super.clear();
+        }
+        catch (NullPointerException | IndexOutOfBoundsException exception) {
+            throw new TransactionException();
+        }
+    }
+
+    @Atomic(retries = 1)
+    // Get the size of the queue in one transactional attempt.
+    int atomicSize() {
+        try {
+            return super.size();
+        }
+        catch (NullPointerException | IndexOutOfBoundsException exception) {
+            throw new TransactionException();
+        }
+    }
+
+    // An operation as a single transactional attempt and as the same work done
+    // under the fallback lock, either of which may report an empty queue. These
+    // are anonymous classes rather than lambdas because the Deuce agent cannot
+    // parse classes that use invokedynamic, and leaves them uninstrumented.
+    private interface Operation<T> {
+        T attempt() throws EmptyQueueException;
+        T fallback() throws EmptyQueueException;
+    }
+}
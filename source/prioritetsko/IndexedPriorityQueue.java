@@ -0,0 +1,210 @@
+// A sequential priority queue with handles for decrease-key and removal.
+
+package prioritetsko;
+
+import java.lang.Comparable;
+import java.util.ArrayList;
+
+// Provides a binary heap where every inserted element gets a handle that knows
+// its current position. Percolating an element up or down updates the handles
+// it moves, so decreasing a key or removing an arbitrary element finds its slot
+// directly and takes O(log n) time. Graph searches such as Dijkstra's can lower
+// a pending vertex's distance in place instead of inserting a duplicate and
+// skipping the stale copies later.
+public class IndexedPriorityQueue
+    <E extends Comparable<E>>
+    implements PriorityQueue<E> {
+
+    private ArrayList<Handle<E>> elements;
+
+    // Create a new, empty priority queue.
+    public IndexedPriorityQueue() {
+        elements = new ArrayList<Handle<E>>();
+    }
+
+    @Override
+    // Add an element to the priority queue.
+    public void insert(E element) {
+        insertHandle(element);
+    }
+
+    // Add an element to the priority queue and get a handle to it.
+    public Handle<E> insertHandle(E element) {
+        Handle<E> handle = new Handle<E>(this, element);
+        elements.add(handle);
+        percolateElementUp(elements.size() - 1, handle);
+
+        return handle;
+    }
+
+    @Override
+    // Get and remove the element at the front of the priority queue.
+    public E retrieve() throws EmptyQueueException {
+        if (elements.isEmpty()) {
+            throw new EmptyQueueException("The priority queue is empty!");
+        }
+
+        return removeAt(0).element;
+    }
+
+    // Replace a queued element with a smaller or equal one and move it forward.
+    public void decreaseKey(Handle<E> handle, E element) {
+        checkHandle(handle);
+        if (element.compareTo(handle.element) > 0) {
+            throw new IllegalArgumentException("The new element is larger than the old one.");
+        }
+
+        handle.element = element;
+        percolateElementUp(handle.index, handle);
+    }
+
+    // Remove a queued element, wherever it is in the heap.
+    public E remove(Handle<E> handle) {
+        checkHandle(handle);
+
+        return removeAt(handle.index).element;
+    }
+
+    // Check if a handle's element is still in this priority queue.
+    public boolean contains(Handle<E> handle) {
+        return handle.queue == this && handle.index >= 0;
+    }
+
+    // Get the element at the front of the priority queue.
+    public E peek() throws EmptyQueueException {
+        if (elements.isEmpty()) {
+            throw new EmptyQueueException("The priority queue is empty!");
+        }
+
+        return elements.get(0).element;
+    }
+
+    // Check if the priority queue is empty.
+    public boolean isEmpty() {
+        return elements.isEmpty();
+    }
+
+    // Get a string representation of this priority queue.
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+
+        for (int elementIndex = 0; elementIndex < elements.size(); elementIndex++) {
+            if (elementIndex > 0) {
+                stringBuilder.append(" ");
+            }
+            stringBuilder.append(elements.get(elementIndex).element);
+        }
+
+        return stringBuilder.toString();
+    }
+
+    // Clear out the priority queue, invalidating every handle.
+    public void clear() {
+        for (Handle<E> handle : elements) {
+            handle.index = -1;
+        }
+        elements.clear();
+    }
+
+    // Get the size of the priority queue.
+    public int size() {
+        return elements.size();
+    }
+
+    @Override
+    // Only necessary to match the priority queue interface.
+    public void finish() {}
+
+    // Make sure a handle belongs to an element still in this priority queue.
+    private void checkHandle(Handle<E> handle) {
+        if (!contains(handle)) {
+            throw new IllegalArgumentException("The handle is not in this priority queue.");
+        }
+    }
+
+    // Remove the handle at an index by moving the last handle into its place
+    // and percolating that one whichever way it needs to go.
+    private Handle<E> removeAt(int index) {
+        Handle<E> removedHandle = elements.get(index);
+        Handle<E> lastHandle = elements.remove(elements.size() - 1);
+        removedHandle.index = -1;
+
+        if (lastHandle != removedHandle) {
+            percolateElementUp(index, lastHandle);
+            if (lastHandle.index == index) {
+                percolateElementDown(index, lastHandle);
+            }
+        }
+
+        return removedHandle;
+    }
+
+    // Move a handle from an index toward the root until its parent is no
+    // larger, shifting parents down into the hole as it goes.
+    private void percolateElementUp(int initialIndex, Handle<E> handle) {
+        int currentIndex = initialIndex;
+
+        while (currentIndex > 0) {
+            int parentIndex = (currentIndex - 1) / 2;
+            Handle<E> parentHandle = elements.get(parentIndex);
+            if (parentHandle.element.compareTo(handle.element) <= 0) {
+                break;
+            }
+            elements.set(currentIndex, parentHandle);
+            parentHandle.index = currentIndex;
+            currentIndex = parentIndex;
+        }
+
+        elements.set(currentIndex, handle);
+        handle.index = currentIndex;
+    }
+
+    // Move a handle from an index toward the leaves until no child is smaller,
+    // shifting the smaller child up into the hole as it goes.
+    private void percolateElementDown(int initialIndex, Handle<E> handle) {
+        int currentIndex = initialIndex;
+        int size = elements.size();
+
+        while (currentIndex * 2 + 1 < size) {
+            int childIndex = currentIndex * 2 + 1;
+            Handle<E> childHandle = elements.get(childIndex);
+            if (childIndex + 1 < size) {
+                Handle<E> rightHandle = elements.get(childIndex + 1);
+                if (rightHandle.element.compareTo(childHandle.element) < 0) {
+                    childIndex++;
+                    childHandle = rightHandle;
+                }
+            }
+            if (handle.element.compareTo(childHandle.element) <= 0) {
+                break;
+            }
+            elements.set(currentIndex, childHandle);
+            childHandle.index = currentIndex;
+            currentIndex = childIndex;
+        }
+
+        elements.set(currentIndex, handle);
+        handle.index = currentIndex;
+    }
+
+    // A reference to an inserted element and its current position, or -1 once
+    // it has left the priority queue. The fields are package-private because
+    // the Deuce agent drops the nestmate attributes that would let the queue
+    // reach private members.
+    public static final class Handle<E> {
+        final IndexedPriorityQueue<?> queue;
+        E element;
+        int index;
+
+        Handle(IndexedPriorityQueue<?> queue, E element) {
+            this.queue = queue;
+            this.element = element;
+            this.index = -1;
+        }
+
+        // Get the element this handle refers to.
+        public E getElement() {
+            return element;
+        }
+    }
+}
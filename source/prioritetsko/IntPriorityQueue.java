@@ -0,0 +1,11 @@
+// The general interface for priority queues of primitive int keys.
+
+package prioritetsko;
+
+// Interface for priority queues of int keys that support insertion and
+// retrieval without boxing.
+public interface IntPriorityQueue {
+    public void finish();
+    public void insert(int element);
+    public int retrieve() throws EmptyQueueException;
+}
@@ -0,0 +1,99 @@
+// A log-bucketed histogram of latencies in nanoseconds.
+
+package prioritetsko;
+
+// Records latencies into buckets whose width grows with the value, in the
+// style of HdrHistogram: values below 32 get a bucket each, and every power of
+// two above that is split into 16 equal buckets, so any recorded value is
+// reported to within about 6% using a fixed array of under a thousand counters.
+// Recording is a few shifts and an array increment with no locks or
+// allocation. A histogram has a single writer; histograms from several threads
+// are combined with add once those threads are done.
+public class LatencyHistogram {
+    private static final int LINEAR_BITS = 5;
+    private static final int LINEAR_BUCKETS = 1 << LINEAR_BITS;
+    private static final int SUB_BUCKETS = LINEAR_BUCKETS / 2;
+    private static final int TOTAL_BUCKETS = (Long.SIZE - LINEAR_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] counts;
+    private long totalCount;
+    private long maxValue;
+
+    // Create an empty histogram.
+    public LatencyHistogram() {
+        counts = new long[TOTAL_BUCKETS];
+        totalCount = 0;
+        maxValue = 0;
+    }
+
+    // Record one latency. Negative values count as zero.
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[getBucketIndex(value)]++;
+        totalCount++;
+        if (value > maxValue) {
+            maxValue = value;
+        }
+    }
+
+    // Add every value recorded in another histogram to this one.
+    public void add(LatencyHistogram other) {
+        for (int bucketIndex = 0; bucketIndex < counts.length; bucketIndex++) {
+            counts[bucketIndex] += other.counts[bucketIndex];
+        }
+        totalCount += other.totalCount;
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    // Get the number of values recorded.
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    // Get the largest value recorded, exactly.
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    // Get the value that the given percentage of recorded values are at or
+    // below, rounded up to the top of its bucket. Returns zero if empty.
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(totalCount * percentile / 100));
+        long seen = 0;
+        for (int bucketIndex = 0; bucketIndex < counts.length; bucketIndex++) {
+            seen += counts[bucketIndex];
+            if (seen >= target) {
+                return Math.min(getBucketTop(bucketIndex), maxValue);
+            }
+        }
+
+        return maxValue;
+    }
+
+    // Get the bucket a value falls in.
+    private static int getBucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - (LINEAR_BITS - 1);
+
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    // Get the largest value that falls in a bucket.
+    private static long getBucketTop(int bucketIndex) {
+        if (bucketIndex < LINEAR_BUCKETS) {
+            return bucketIndex;
+        }
+
+        int shift = bucketIndex / SUB_BUCKETS - 1;
+        long mantissa = bucketIndex % SUB_BUCKETS + SUB_BUCKETS;
+
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
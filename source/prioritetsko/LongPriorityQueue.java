@@ -0,0 +1,11 @@
+// The general interface for priority queues of primitive long keys.
+
+package prioritetsko;
+
+// Interface for priority queues of long keys that support insertion and
+// retrieval without boxing.
+public interface LongPriorityQueue {
+    public void finish();
+    public void insert(long element);
+    public long retrieve() throws EmptyQueueException;
+}
@@ -0,0 +1,59 @@
+// A priority queue that reports every insertion and retrieval of another one.
+
+package prioritetsko;
+
+import java.lang.Comparable;
+
+// Wraps any priority queue and reports its insertions, retrievals and empty
+// retrievals, which is what gives QueueStatistics its depth. Queues with
+// internal events of their own, such as CAS failures or aborts, also take the
+// same metrics through their setMetrics methods.
+public class MeteredPriorityQueue
+    <E extends Comparable<E>>
+    implements PriorityQueue<E> {
+
+    private final PriorityQueue<E> queue;
+    private final QueueMetrics metrics;
+
+    // Create a new priority queue that reports the operations on another one.
+    public MeteredPriorityQueue(PriorityQueue<E> queue, QueueMetrics metrics) {
+        this.queue = queue;
+        this.metrics = metrics;
+    }
+
+    @Override
+    // Add an element to the priority queue.
+    public void insert(E element) {
+        queue.insert(element);
+        metrics.onInsert(1);
+    }
+
+    @Override
+    // Get and remove the element at the front of the priority queue. Some
+    // queues report emptiness by returning null rather than throwing.
+    public E retrieve() throws EmptyQueueException {
+        E element;
+        try {
+            element = queue.retrieve();
+        }
+        catch (EmptyQueueException exception) {
+            metrics.onEmptyRetrieve();
+            throw exception;
+        }
+
+        if (element == null) {
+            metrics.onEmptyRetrieve();
+        }
+        else {
+            metrics.onRetrieve(1);
+        }
+
+        return element;
+    }
+
+    @Override
+    // Finish the underlying priority queue.
+    public void finish() {
+        queue.finish();
+    }
+}
@@ -0,0 +1,191 @@
+// A relaxed priority queue made of many independently locked heaps.
+
+package prioritetsko;
+
+import java.lang.Comparable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Provides a MultiQueue: c * P sequential heaps, each behind its own lock.
+// Insertions go to a random heap that can be locked without waiting, and
+// retrievals compare the minimums of two random heaps and pop the better one.
+// The element returned is usually close to, but not always, the true minimum;
+// a larger relaxation factor spreads contention further at the cost of order.
+public class MultiQueuePriorityQueue
+    <E extends Comparable<E>>
+    implements PriorityQueue<E> {
+
+    private static final int DEFAULT_RELAXATION_FACTOR = 2;
+
+    private final Shard<E>[] shards;
+    private final boolean measureRankError;
+    private final LongAdder rankErrorTotal;
+    private final LongAdder rankErrorSamples;
+    private final LongAccumulator rankErrorMaximum;
+
+    // Create a new, empty priority queue with two heaps per processor.
+    public MultiQueuePriorityQueue() {
+        this(DEFAULT_RELAXATION_FACTOR, Runtime.getRuntime().availableProcessors(), false);
+    }
+
+    // Create a new, empty priority queue with relaxationFactor heaps for each
+    // of the given number of threads. If measureRankError is set, every
+    // retrieval also counts how many heap minimums beat the element returned.
+    @SuppressWarnings("unchecked")
+    public MultiQueuePriorityQueue(int relaxationFactor, int threads, boolean measureRankError) {
+        if (relaxationFactor < 1 || threads < 1) {
+            throw new IllegalArgumentException("The relaxation factor and threads must be positive.");
+        }
+
+        shards = (Shard<E>[]) new Shard<?>[relaxationFactor * threads];
+        for (int shardIndex = 0; shardIndex < shards.length; shardIndex++) {
+            shards[shardIndex] = new Shard<E>();
+        }
+
+        this.measureRankError = measureRankError;
+        rankErrorTotal = new LongAdder();
+        rankErrorSamples = new LongAdder();
+        rankErrorMaximum = new LongAccumulator(Math::max, 0);
+    }
+
+    @Override
+    // Add an element to a random heap that is not locked.
+    public void insert(E element) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        while (true) {
+            Shard<E> shard = shards[random.nextInt(shards.length)];
+            if (shard.lock.tryLock()) {
+                try {
+                    shard.heap.insert(element);
+                    shard.updateMinimum();
+                }
+                finally {
+                    shard.lock.unlock();
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    // Get and remove the smaller front element of two random heaps.
+    public E retrieve() throws EmptyQueueException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        while (true) {
+            Shard<E> first = shards[random.nextInt(shards.length)];
+            Shard<E> second = shards[random.nextInt(shards.length)];
+            E firstMinimum = first.minimum;
+            E secondMinimum = second.minimum;
+
+            Shard<E> chosen;
+            if (firstMinimum == null && secondMinimum == null) {
+                chosen = findNonEmptyShard();
+                if (chosen == null) {
+                    throw new EmptyQueueException("The priority queue is empty!");
+                }
+            }
+            else if (secondMinimum == null
+                || (firstMinimum != null && firstMinimum.compareTo(secondMinimum) <= 0)) {
+                chosen = first;
+            }
+            else {
+                chosen = second;
+            }
+
+            // Another thread holds this heap or emptied it; sample again.
+            if (!chosen.lock.tryLock()) {
+                continue;
+            }
+            E retrievedElement;
+            try {
+                if (chosen.heap.isEmpty()) {
+                    continue;
+                }
+                retrievedElement = chosen.heap.retrieve();
+                chosen.updateMinimum();
+            }
+            finally {
+                chosen.lock.unlock();
+            }
+
+            if (measureRankError) {
+                recordRankError(retrievedElement);
+            }
+            return retrievedElement;
+        }
+    }
+
+    // Get the average number of heap minimums that beat each retrieved
+    // element, or zero if rank errors are not being measured.
+    public double getAverageRankError() {
+        long samples = rankErrorSamples.sum();
+
+        return (samples == 0) ? 0 : ((double) rankErrorTotal.sum()) / samples;
+    }
+
+    // Get the largest number of heap minimums that beat a retrieved element.
+    public long getMaximumRankError() {
+        return rankErrorMaximum.get();
+    }
+
+    // Get the number of heaps.
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    @Override
+    // Only necessary to match the priority queue interface.
+    public void finish() {}
+
+    // Find any heap that looks non-empty, or null if every heap looks empty.
+    private Shard<E> findNonEmptyShard() {
+        int start = ThreadLocalRandom.current().nextInt(shards.length);
+        for (int offset = 0; offset < shards.length; offset++) {
+            Shard<E> shard = shards[(start + offset) % shards.length];
+            if (shard.minimum != null) {
+                return shard;
+            }
+        }
+
+        return null;
+    }
+
+    // Count the heap minimums smaller than a retrieved element. This is a lower
+    // bound on how far the element is from the true minimum.
+    private void recordRankError(E retrievedElement) {
+        long rankError = 0;
+        for (Shard<E> shard : shards) {
+            E minimum = shard.minimum;
+            if (minimum != null && minimum.compareTo(retrievedElement) < 0) {
+                rankError++;
+            }
+        }
+
+        rankErrorTotal.add(rankError);
+        rankErrorSamples.increment();
+        rankErrorMaximum.accumulate(rankError);
+    }
+
+    // A sequential heap with its own lock and a published copy of its minimum.
+    // It is package-private, and so is its implicit constructor, because the
+    // Deuce agent drops the nestmate attributes that would allow private access.
+    static final class Shard<E extends Comparable<E>> {
+        final ReentrantLock lock = new ReentrantLock();
+        final SequentialPriorityQueue<E> heap = new SequentialPriorityQueue<E>();
+        volatile E minimum;
+
+        // Publish the current minimum. Must be called while holding the lock.
+        void updateMinimum() {
+            try {
+                minimum = heap.peek();
+            }
+            catch (EmptyQueueException exception) {
+                minimum = null;
+            }
+        }
+    }
+}
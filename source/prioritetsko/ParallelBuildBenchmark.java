@@ -0,0 +1,112 @@
+// Measures parallel bulk construction and sorted draining across pool sizes and
+// outputs the results to stdout. This program is executed like so:
+//     $ java ParallelBuildBenchmark <totalElements> [maxParallelism] [totalRuns]
+
+package prioritetsko;
+
+import java.util.List;
+import java.util.Random;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+// Benchmark parallel heap construction and draining with growing pool sizes.
+public class ParallelBuildBenchmark {
+    private static final int DEFAULT_RUNS = 5;
+
+    // Main entry point to this program.
+    public static void main(String[] argumentsVector) throws EmptyQueueException {
+        if (argumentsVector.length < 1) {
+            System.err.println("Arguments: <totalElements> [maxParallelism] [totalRuns]");
+            System.exit(1);
+        }
+
+        int totalElements = 0;
+        int maxParallelism = Runtime.getRuntime().availableProcessors();
+        int totalRuns = DEFAULT_RUNS;
+        try {
+            totalElements = Integer.parseInt(argumentsVector[0]);
+            if (argumentsVector.length > 1) {
+                maxParallelism = Integer.parseInt(argumentsVector[1]);
+            }
+            if (argumentsVector.length > 2) {
+                totalRuns = Integer.parseInt(argumentsVector[2]);
+            }
+        }
+        catch (NumberFormatException exception) {
+            System.err.println("Your arguments must all be integers.");
+            System.exit(2);
+        }
+
+        Random random = new Random(totalElements);
+        List<Integer> values = new ArrayList<Integer>(totalElements);
+        for (int count = 0; count < totalElements; count++) {
+            values.add(random.nextInt());
+        }
+
+        // Baselines on the calling thread.
+        double heapifyTime = 0;
+        double retrieveTime = 0;
+        for (int runID = 0; runID <= totalRuns; runID++) {
+            SequentialPriorityQueue<Integer> queue = new SequentialPriorityQueue<Integer>();
+            long startTime = System.nanoTime();
+            queue.insert(values);
+            long middleTime = System.nanoTime();
+            while (!queue.isEmpty()) {
+                queue.retrieve();
+            }
+            long stopTime = System.nanoTime();
+
+            // The first run only warms up.
+            if (runID > 0) {
+                heapifyTime += (middleTime - startTime) / 1000000.0;
+                retrieveTime += (stopTime - middleTime) / 1000000.0;
+            }
+        }
+        System.out.printf(
+            "Sequential heapify: %f ms | Sequential retrieve-all: %f ms\n",
+            heapifyTime / totalRuns,
+            retrieveTime / totalRuns
+        );
+
+        for (int parallelism = 1; parallelism <= maxParallelism; parallelism *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+            double buildTime = 0;
+            double drainTime = 0;
+            double ecBuildTime = 0;
+            double ecDrainTime = 0;
+            for (int runID = 0; runID <= totalRuns; runID++) {
+                SequentialPriorityQueue<Integer> queue = new SequentialPriorityQueue<Integer>();
+                long startTime = System.nanoTime();
+                queue.insertParallel(values, pool);
+                long middleTime = System.nanoTime();
+                pool.submit(() -> queue.drainSorted()).join();
+                long stopTime = System.nanoTime();
+
+                ECPriorityQueue<Integer> ecQueue = new ECPriorityQueue<Integer>(values, pool);
+                long ecMiddleTime = System.nanoTime();
+                pool.submit(() -> ecQueue.drainSorted()).join();
+                long ecStopTime = System.nanoTime();
+                ecQueue.finish();
+
+                if (runID > 0) {
+                    buildTime += (middleTime - startTime) / 1000000.0;
+                    drainTime += (stopTime - middleTime) / 1000000.0;
+                    ecBuildTime += (ecMiddleTime - stopTime) / 1000000.0;
+                    ecDrainTime += (ecStopTime - ecMiddleTime) / 1000000.0;
+                }
+            }
+            pool.shutdown();
+
+            System.out.printf(
+                "Parallelism: %2d | Build: %f ms | Sorted drain: %f ms"
+                    + " | EC build: %f ms | EC sorted drain: %f ms\n",
+                parallelism,
+                buildTime / totalRuns,
+                drainTime / totalRuns,
+                ecBuildTime / totalRuns,
+                ecDrainTime / totalRuns
+            );
+        }
+    }
+}
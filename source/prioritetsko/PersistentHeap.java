@@ -0,0 +1,201 @@
+// Immutable leftist heap used by the ECPriorityQueue's compare-and-set path.
+
+package prioritetsko;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// A persistent (structurally shared) min-heap of elements ordered by priority.
+// Every operation returns a new heap and leaves the original untouched, and
+// only the nodes along the merged right spines are copied. An insertion or a
+// removal therefore allocates O(log n) nodes instead of copying the whole heap.
+public final class PersistentHeap<E extends Comparable<E>> {
+
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    @SuppressWarnings("rawtypes")
+    private static final PersistentHeap EMPTY = new PersistentHeap();
+
+    private final Element<E> element;
+    private final PersistentHeap<E> left;
+    private final PersistentHeap<E> right;
+    private final int rank;
+    private final int size;
+
+    // Create the shared empty heap.
+    private PersistentHeap() {
+        element = null;
+        left = null;
+        right = null;
+        rank = 0;
+        size = 0;
+    }
+
+    // Create a node, placing the child with the larger rank on the left.
+    private PersistentHeap(Element<E> element, PersistentHeap<E> a, PersistentHeap<E> b) {
+        this.element = element;
+        if (a.rank >= b.rank) {
+            left = a;
+            right = b;
+        }
+        else {
+            left = b;
+            right = a;
+        }
+        rank = right.rank + 1;
+        size = a.size + b.size + 1;
+    }
+
+    // Get the empty heap.
+    @SuppressWarnings("unchecked")
+    public static <E extends Comparable<E>> PersistentHeap<E> empty() {
+        return (PersistentHeap<E>) EMPTY;
+    }
+
+    // Build a heap from a list of elements in linear time, building halves of
+    // the list in parallel on the common pool.
+    public static <E extends Comparable<E>> PersistentHeap<E> of(List<Element<E>> elements) {
+        return of(elements, ForkJoinPool.commonPool());
+    }
+
+    // Build a heap from a list of elements in linear time, building halves of
+    // the list in parallel on the given pool.
+    public static <E extends Comparable<E>> PersistentHeap<E> of(
+        List<Element<E>> elements,
+        ForkJoinPool pool) {
+
+        return pool.invoke(new BuildTask<E>(elements, 0, elements.size()));
+    }
+
+    // Get a new heap that also contains the given element.
+    public PersistentHeap<E> insert(Element<E> e) {
+        PersistentHeap<E> empty = empty();
+        return merge(this, new PersistentHeap<E>(e, empty, empty));
+    }
+
+    // Get a new heap without the min element. The empty heap returns itself.
+    public PersistentHeap<E> removeMin() {
+        if (size == 0)
+            return this;
+
+        return merge(left, right);
+    }
+
+    // Get min Element without removing
+    public Element<E> getMin() {
+        return element;
+    }
+
+    // Get a new heap that holds the elements of both this heap and another.
+    public PersistentHeap<E> merge(PersistentHeap<E> other) {
+        return merge(this, other);
+    }
+
+    // Check if the heap is empty.
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Get the number of elements in the heap.
+    public int size() {
+        return size;
+    }
+
+    // Get every element in the heap, in no particular order.
+    public List<Element<E>> toList() {
+        List<Element<E>> heapElements = new ArrayList<Element<E>>(size);
+        ArrayDeque<PersistentHeap<E>> pending = new ArrayDeque<PersistentHeap<E>>();
+
+        // The left spine of a leftist heap can be long, so walk it iteratively.
+        if (size > 0)
+            pending.push(this);
+        while (!pending.isEmpty()) {
+            PersistentHeap<E> node = pending.pop();
+            heapElements.add(node.element);
+            if (node.left.size > 0)
+                pending.push(node.left);
+            if (node.right.size > 0)
+                pending.push(node.right);
+        }
+
+        return heapElements;
+    }
+
+    // Build a heap from part of a list by merging singleton heaps pairwise. This
+    // and merge are package-private because the Deuce agent drops the nestmate
+    // attributes that would let BuildTask call private methods.
+    static <E extends Comparable<E>> PersistentHeap<E> build(
+        List<Element<E>> elements,
+        int from,
+        int to) {
+
+        int count = to - from;
+        if (count <= 0)
+            return empty();
+
+        @SuppressWarnings("unchecked")
+        PersistentHeap<E>[] heaps = (PersistentHeap<E>[]) new PersistentHeap<?>[count];
+        PersistentHeap<E> empty = empty();
+        for (int i = 0; i < count; i++)
+            heaps[i] = new PersistentHeap<E>(elements.get(from + i), empty, empty);
+
+        for (int step = 1; step < count; step *= 2) {
+            for (int i = 0; i + step < count; i += 2 * step)
+                heaps[i] = merge(heaps[i], heaps[i + step]);
+        }
+
+        return heaps[0];
+    }
+
+    // Builds each half of a range in parallel and merges the two results
+    private static final class BuildTask<E extends Comparable<E>>
+        extends RecursiveTask<PersistentHeap<E>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Element<E>> elements;
+        private final int from;
+        private final int to;
+
+        BuildTask(List<Element<E>> elements, int from, int to) {
+            this.elements = elements;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected PersistentHeap<E> compute() {
+            if (to - from <= PARALLEL_THRESHOLD)
+                return build(elements, from, to);
+
+            int middle = (from + to) >>> 1;
+            BuildTask<E> lower = new BuildTask<E>(elements, from, middle);
+            lower.fork();
+            PersistentHeap<E> upper = new BuildTask<E>(elements, middle, to).compute();
+
+            return merge(lower.join(), upper);
+        }
+    }
+
+    // Merge two heaps along their right spines, copying only the visited nodes.
+    static <E extends Comparable<E>> PersistentHeap<E> merge(
+        PersistentHeap<E> a,
+        PersistentHeap<E> b) {
+
+        if (a.size == 0)
+            return b;
+        if (b.size == 0)
+            return a;
+
+        if (b.element.priority < a.element.priority) {
+            PersistentHeap<E> temp = a;
+            a = b;
+            b = temp;
+        }
+
+        return new PersistentHeap<E>(a.element, a.left, merge(a.right, b));
+    }
+}
@@ -1,51 +1,134 @@
 // Tests a variety of synchronized priority queue implementations and output the
 // results to stdout. This program is executed like so:
-//     $ java PrioritetskoTester <totalThreads> <totalPushes> <totalPops> [totalRuns]
+//     $ java PrioritetskoTester [options] <totalThreads> <totalPushes> <totalPops> [totalRuns] [format]
+// The format is text (the default), csv or json. The csv and json formats add
+// throughput and per-operation latency percentiles to the execution times.
+// The options switch to a throughput mode, where a fixed pool of threads runs
+// a mix of totalPushes to totalPops against a fresh, prefilled queue for each
+// of totalRuns trials, warms up and then measures for a fixed time:
+//     --throughput          Measure steady-state throughput instead.
+//     --warmup=<ms>         Milliseconds to run before measuring (default 500).
+//     --duration=<ms>       Milliseconds to measure for (default 1000).
+//     --prefill=<depth>     Elements in each queue before a trial (default 1000).
 // Written by Tiger Sachse.
 
 package prioritetsko;
 
 import java.util.Stack;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.LinkedHashMap;
 import java.util.EmptyStackException;
+import java.util.function.Supplier;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.BrokenBarrierException;
 
 // Test a variety of synchronized priority queues.
 public class PrioritetskoTester {
     private static final int DEFAULT_RUNS = 50;
+    private static final int DEFAULT_TRIALS = 3;
+    private static final int DEFAULT_WARMUP_MILLISECONDS = 500;
+    private static final int DEFAULT_DURATION_MILLISECONDS = 1000;
+    private static final int DEFAULT_PREFILL_DEPTH = 1000;
+    private static final String DEFAULT_FORMAT = "text";
+    private static final String[] FORMATS = {"text", "csv", "json"};
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p99", "p999"};
 
     // Main entry point to this program.
     public static void main(String[] argumentsVector) throws InterruptedException {
         
-        // Parse the command line arguments and create an arraylist of queues for testing.
+        // Parse the command line arguments and create a map of named queue
+        // factories for testing, so that each test can start from a new queue.
         Arguments arguments = parseArguments(argumentsVector);
-        ArrayList<PriorityQueue<Integer>> queues = new ArrayList<PriorityQueue<Integer>>();
-        queues.add(new SynchronizedPriorityQueue<Integer>());
-        queues.add(new STMPriorityQueue<Integer>());
-        queues.add(new ECPriorityQueue<Integer>());
+        LinkedHashMap<String, Supplier<PriorityQueue<Integer>>> factories =
+            new LinkedHashMap<String, Supplier<PriorityQueue<Integer>>>();
+        factories.put("SynchronizedPriorityQueue", () -> new SynchronizedPriorityQueue<Integer>());
+        factories.put("STMPriorityQueue", () -> new STMPriorityQueue<Integer>());
+        factories.put("HybridSTMPriorityQueue", () -> new HybridSTMPriorityQueue<Integer>());
+        factories.put("TL2PriorityQueue", () -> new TL2PriorityQueue<Integer>());
+        factories.put("ECPriorityQueue", () -> new ECPriorityQueue<Integer>());
+        factories.put("SkipListPriorityQueue", () -> new SkipListPriorityQueue<Integer>());
+        factories.put("MultiQueuePriorityQueue", () -> new MultiQueuePriorityQueue<Integer>());
+        factories.put("FlatCombiningPriorityQueue", () -> new FlatCombiningPriorityQueue<Integer>());
+        factories.put("FineGrainedPriorityQueue", () -> new FineGrainedPriorityQueue<Integer>());
+        factories.put(
+            "BufferedPriorityQueue",
+            () -> new BufferedPriorityQueue<Integer>(new SynchronizedPriorityQueue<Integer>())
+        );
         
         // Run tests on each queue and save the results in an array.
-        for (PriorityQueue<Integer> queue : queues) {
-            double[] results = runTests(
-                arguments.totalRuns,
-                arguments.totalThreads,
-                arguments.totalPushes,
-                arguments.totalPops,
-                queue
-            );
+        ThroughputPool pool = arguments.throughput
+            ? new ThroughputPool(arguments.totalThreads)
+            : null;
+        printHeader(arguments.format);
+        boolean first = true;
+        for (Map.Entry<String, Supplier<PriorityQueue<Integer>>> factory : factories.entrySet()) {
+            TestResults[] results;
+            if (arguments.throughput) {
+                results = runTrials(arguments, factory.getValue(), pool);
+            }
+            else {
+                PriorityQueue<Integer> queue = factory.getValue().get();
+                results = runTests(
+                    arguments.totalRuns,
+                    arguments.totalThreads,
+                    arguments.totalPushes,
+                    arguments.totalPops,
+                    queue
+                );
+                queue.finish();
+            }
 
-            printResults(queue, results);
+            printResults(factory.getKey(), results, arguments.format, first);
+            first = false;
+        }
+        printFooter(arguments.format);
+        if (pool != null) {
+            pool.shutdown();
         }
     }
 
     // Parse the command line arguments.
-    private static Arguments parseArguments(String[] argumentsVector) {
+    private static Arguments parseArguments(String[] allArguments) {
         Arguments arguments = new Arguments();
 
+        // Pull the options out from among the other arguments.
+        arguments.throughput = false;
+        arguments.warmupMilliseconds = DEFAULT_WARMUP_MILLISECONDS;
+        arguments.durationMilliseconds = DEFAULT_DURATION_MILLISECONDS;
+        arguments.prefillDepth = DEFAULT_PREFILL_DEPTH;
+        ArrayList<String> positionalArguments = new ArrayList<String>();
+        for (String argument : allArguments) {
+            if (!argument.startsWith("--")) {
+                positionalArguments.add(argument);
+            }
+            else if (argument.equals("--throughput")) {
+                arguments.throughput = true;
+            }
+            else if (argument.startsWith("--warmup=")) {
+                arguments.warmupMilliseconds = parseOption(argument, 0);
+            }
+            else if (argument.startsWith("--duration=")) {
+                arguments.durationMilliseconds = parseOption(argument, 1);
+            }
+            else if (argument.startsWith("--prefill=")) {
+                arguments.prefillDepth = parseOption(argument, 0);
+            }
+            else {
+                System.err.println("Unknown option: " + argument);
+                System.exit(6);
+            }
+        }
+        String[] argumentsVector = positionalArguments.toArray(new String[0]);
+
         // Ensure that enough arguments are present.
         if (argumentsVector.length < 3) {
             System.err.println(
-                "Arguments: <totalThreads> <totalPushes> <totalPops> [totalRuns]"
+                "Arguments: [--throughput] [--warmup=<ms>] [--duration=<ms>] [--prefill=<depth>]"
+                + " <totalThreads> <totalPushes> <totalPops> [totalRuns] [format]"
             );
             System.exit(1);
         }
@@ -65,7 +148,7 @@ public class PrioritetskoTester {
         }
 
         // If a fourth integer is given, overwrite the default totalRuns value.
-        arguments.totalRuns = DEFAULT_RUNS;
+        arguments.totalRuns = arguments.throughput ? DEFAULT_TRIALS : DEFAULT_RUNS;
         if (argumentsVector.length > 3) {
             try {
                 arguments.totalRuns = Integer.parseInt(argumentsVector[3]);
@@ -85,12 +168,83 @@ public class PrioritetskoTester {
             System.err.println("Your arguments must all be positive integers.");
             System.exit(4);
         }
+
+        // If a fifth argument is given, it picks the output format.
+        arguments.format = DEFAULT_FORMAT;
+        if (argumentsVector.length > 4) {
+            arguments.format = argumentsVector[4];
+            if (!Arrays.asList(FORMATS).contains(arguments.format)) {
+                System.err.println("The format must be one of text, csv or json.");
+                System.exit(5);
+            }
+        }
         
         return arguments;
     }
 
+    // Parse the integer value of an option, which must be at least minimum.
+    private static int parseOption(String argument, int minimum) {
+        int value = 0;
+        try {
+            value = Integer.parseInt(argument.substring(argument.indexOf('=') + 1));
+        }
+        catch (NumberFormatException exception) {
+            System.err.println("Option values must be integers: " + argument);
+            System.exit(6);
+        }
+        if (value < minimum) {
+            System.err.printf("Option values must be at least %d: %s\n", minimum, argument);
+            System.exit(6);
+        }
+
+        return value;
+    }
+
+    // Measure the steady-state throughput of new queues from a factory with a
+    // range of threads.
+    private static TestResults[] runTrials(
+        Arguments arguments,
+        Supplier<PriorityQueue<Integer>> factory,
+        ThroughputPool pool) throws InterruptedException {
+
+        // For each trial and for each thread count, fill a new queue and run a
+        // trial on it with that many of the pool's threads.
+        float odds = ((float) arguments.totalPushes) / (arguments.totalPushes + arguments.totalPops);
+        Random random = new Random();
+        TestResults[] results = new TestResults[arguments.totalThreads];
+        for (int threadID = 0; threadID < arguments.totalThreads; threadID++) {
+            results[threadID] = new TestResults();
+        }
+        for (int trialID = 0; trialID < arguments.totalRuns; trialID++) {
+            for (int threadID = 0; threadID < arguments.totalThreads; threadID++) {
+                PriorityQueue<Integer> queue = factory.get();
+                for (int element = 0; element < arguments.prefillDepth; element++) {
+                    queue.insert(random.nextInt());
+                }
+                pool.runTrial(
+                    queue,
+                    threadID + 1,
+                    odds,
+                    arguments.warmupMilliseconds,
+                    arguments.durationMilliseconds,
+                    results[threadID]
+                );
+                queue.finish();
+            }
+        }
+
+        // Express each thread count's throughput as the time per thread that
+        // the regular test's workload would take at that rate.
+        for (TestResults result : results) {
+            result.milliseconds = (arguments.totalPushes + arguments.totalPops)
+                * 1000.0 / result.getOperationsPerSecond();
+        }
+
+        return results;
+    }
+
     // Run tests on a given queue with a range of threads.
-    private static double[] runTests(
+    private static TestResults[] runTests(
         int totalRuns,
         int totalThreads,
         int totalPushes,
@@ -99,43 +253,49 @@ public class PrioritetskoTester {
 
         // For each run and for each thread count, run a test with that thread
         // count on the provided queue and save the results into an array.
-        double[] results = new double[totalThreads];
+        TestResults[] results = new TestResults[totalThreads];
+        for (int threadID = 0; threadID < totalThreads; threadID++) {
+            results[threadID] = new TestResults();
+        }
         for (int runID = 0; runID < totalRuns; runID++) {
             for (int threadID = 0; threadID < totalThreads; threadID++) {
-                results[threadID] += runTest(
+                runTest(
                     threadID + 1,
                     totalPushes,
                     totalPops,
-                    queue
+                    queue,
+                    results[threadID]
                 );
             }
         }
 
         // Get the average for each thread count.
         for (int threadID = 0; threadID < results.length; threadID++) {
-            results[threadID] /= totalRuns;
+            results[threadID].milliseconds /= totalRuns;
         }
 
         return results;
     }
     
-    // Push to and pop from a given queue a specific number of times.
-    private static double runTest(
+    // Push to and pop from a given queue a specific number of times, and add
+    // the timings to the results.
+    private static void runTest(
         int totalThreads,
         int totalPushes,
         int totalPops,
-        PriorityQueue<Integer> queue) throws InterruptedException {
+        PriorityQueue<Integer> queue,
+        TestResults results) throws InterruptedException {
 
         // Allocate an appropriate number of threads for this test.
+        QueueManipulator[] manipulators = new QueueManipulator[totalThreads];
         Thread[] threads = new Thread[totalThreads];
         for (int threadID = 0; threadID < totalThreads; threadID++) {
-            threads[threadID] = new Thread(
-                new QueueManipulator(
-                    totalPops,
-                    totalPushes,
-                    queue
-                )
+            manipulators[threadID] = new QueueManipulator(
+                totalPops,
+                totalPushes,
+                queue
             );
+            threads[threadID] = new Thread(manipulators[threadID]);
         }
 
         // Begin the test, then wait for all threads to finish.
@@ -147,25 +307,98 @@ public class PrioritetskoTester {
             thread.join();
         }
         long stopTime = System.nanoTime();
-	queue.finish();
 
-        // Return the execution time of this test (per thread) in milliseconds.
-        return ((double) (stopTime - startTime)) / 1000000 / totalThreads;
+        // Add the execution time of this test (per thread) in milliseconds,
+        // the work done and every thread's latencies to the results.
+        results.milliseconds += ((double) (stopTime - startTime)) / 1000000 / totalThreads;
+        results.operations += ((long) totalThreads) * (totalPushes + totalPops);
+        results.nanoseconds += stopTime - startTime;
+        for (QueueManipulator manipulator : manipulators) {
+            results.insertLatencies.add(manipulator.getInsertLatencies());
+            results.retrieveLatencies.add(manipulator.getRetrieveLatencies());
+        }
+    }
+
+    // Print anything that comes before all of the results.
+    private static void printHeader(String format) {
+        if (format.equals("csv")) {
+            StringBuilder header = new StringBuilder("queue,threads,milliseconds,ops_per_second");
+            for (String operation : new String[] {"insert", "retrieve"}) {
+                for (String percentile : PERCENTILE_NAMES) {
+                    header.append(",").append(operation).append("_").append(percentile).append("_ns");
+                }
+                header.append(",").append(operation).append("_max_ns");
+            }
+            System.out.println(header);
+        }
+        else if (format.equals("json")) {
+            System.out.println("[");
+        }
+    }
+
+    // Print anything that comes after all of the results.
+    private static void printFooter(String format) {
+        if (format.equals("json")) {
+            System.out.println("]");
+        }
     }
 
     // Print results for a queue's tests.
-    private static void printResults(PriorityQueue<Integer> queue, double[] results) {
-        System.out.printf(
-            "Execution time per thread for the %s:\n",
-            queue.getClass().getSimpleName()
-        );
+    private static void printResults(
+        String name,
+        TestResults[] results,
+        String format,
+        boolean first) {
 
-        for (int threadID = 0; threadID < results.length; threadID++) {
-            System.out.printf(
-                "Threads: %2d | Milliseconds: %f\n",
-                threadID + 1,
-                results[threadID]
-            );
+        if (format.equals("csv")) {
+            for (int threadID = 0; threadID < results.length; threadID++) {
+                TestResults result = results[threadID];
+                StringBuilder row = new StringBuilder();
+                row.append(String.format("%s,%d,%f,%f", name, threadID + 1,
+                    result.milliseconds, result.getOperationsPerSecond()));
+                for (LatencyHistogram latencies : result.getLatencies()) {
+                    for (double percentile : PERCENTILES) {
+                        row.append(",").append(latencies.getValueAtPercentile(percentile));
+                    }
+                    row.append(",").append(latencies.getMaxValue());
+                }
+                System.out.println(row);
+            }
+        }
+        else if (format.equals("json")) {
+            StringBuilder entry = new StringBuilder();
+            entry.append(first ? "  " : "  ,").append("{\"queue\": \"").append(name).append("\", \"results\": [");
+            for (int threadID = 0; threadID < results.length; threadID++) {
+                TestResults result = results[threadID];
+                entry.append((threadID == 0) ? "\n    " : ",\n    ");
+                entry.append(String.format("{\"threads\": %d, \"milliseconds\": %f, \"opsPerSecond\": %f",
+                    threadID + 1, result.milliseconds, result.getOperationsPerSecond()));
+                String[] operations = {"insert", "retrieve"};
+                LatencyHistogram[] latencies = result.getLatencies();
+                for (int operationID = 0; operationID < operations.length; operationID++) {
+                    entry.append(", \"").append(operations[operationID]).append("\": {");
+                    for (int percentileID = 0; percentileID < PERCENTILES.length; percentileID++) {
+                        entry.append("\"").append(PERCENTILE_NAMES[percentileID]).append("\": ")
+                            .append(latencies[operationID].getValueAtPercentile(PERCENTILES[percentileID]))
+                            .append(", ");
+                    }
+                    entry.append("\"max\": ").append(latencies[operationID].getMaxValue()).append("}");
+                }
+                entry.append("}");
+            }
+            entry.append("\n  ]}");
+            System.out.println(entry);
+        }
+        else {
+            System.out.printf("Execution time per thread for the %s:\n", name);
+
+            for (int threadID = 0; threadID < results.length; threadID++) {
+                System.out.printf(
+                    "Threads: %2d | Milliseconds: %f\n",
+                    threadID + 1,
+                    results[threadID].milliseconds
+                );
+            }
         }
     }
 }
@@ -177,6 +410,8 @@ class QueueManipulator implements Runnable {
     private int totalPushes;
     private Stack<Integer> integerStack;
     private PriorityQueue<Integer> queue;
+    private LatencyHistogram insertLatencies;
+    private LatencyHistogram retrieveLatencies;
 
     // Initialize this manipulator with a queue and some push and pop targets.
     public QueueManipulator(
@@ -187,6 +422,8 @@ class QueueManipulator implements Runnable {
         this.queue = queue;
         this.totalPops = totalPops;
         this.totalPushes = totalPushes;
+        insertLatencies = new LatencyHistogram();
+        retrieveLatencies = new LatencyHistogram();
 
         // Create a stack of random numbers. These are preallocated to prevent
         // allocation time from polluting the performance of the stack during
@@ -209,22 +446,37 @@ class QueueManipulator implements Runnable {
             boolean executePush = (random.nextFloat() > odds);
             if (executePush) {
                 try {
-                    queue.insert(integerStack.pop());
+                    Integer element = integerStack.pop();
+                    long startTime = System.nanoTime();
+                    queue.insert(element);
+                    insertLatencies.record(System.nanoTime() - startTime);
                 }
                 catch (EmptyStackException exception) {
                 }
                 remainingPushes--;
             }
             else {
+                long startTime = System.nanoTime();
                 try {
                     queue.retrieve();
                 }
                 catch (EmptyQueueException exception) {
                 }
+                retrieveLatencies.record(System.nanoTime() - startTime);
                 remainingPops--;
             }
         }
     }
+
+    // Get the latencies of every insertion this manipulator made.
+    public LatencyHistogram getInsertLatencies() {
+        return insertLatencies;
+    }
+
+    // Get the latencies of every retrieval this manipulator made.
+    public LatencyHistogram getRetrieveLatencies() {
+        return retrieveLatencies;
+    }
 }
 
 // A structure that holds command line arguments.
@@ -233,4 +485,196 @@ class Arguments {
     public int totalPushes;
     public int totalPops;
     public int totalRuns;
+    public String format;
+    public boolean throughput;
+    public int warmupMilliseconds;
+    public int durationMilliseconds;
+    public int prefillDepth;
+}
+
+// A structure that accumulates the results of a queue's tests at one thread count.
+class TestResults {
+    public double milliseconds;
+    public long operations;
+    public long nanoseconds;
+    public LatencyHistogram insertLatencies = new LatencyHistogram();
+    public LatencyHistogram retrieveLatencies = new LatencyHistogram();
+
+    // Get the number of operations completed per second of wall-clock time.
+    public double getOperationsPerSecond() {
+        return (nanoseconds == 0) ? 0 : operations * 1000000000.0 / nanoseconds;
+    }
+
+    // Get the insertion and retrieval latencies, in that order.
+    public LatencyHistogram[] getLatencies() {
+        return new LatencyHistogram[] {insertLatencies, retrieveLatencies};
+    }
+}
+
+// A fixed set of threads that run timed throughput trials. The threads are
+// started once and wait at a barrier between trials, so no trial pays for
+// thread startup, and every thread in a trial is released at the same time.
+class ThroughputPool {
+    private static final int WARMUP = 0;
+    private static final int MEASURE = 1;
+    private static final int STOP = 2;
+
+    private final Thread[] threads;
+    private final CyclicBarrier startBarrier;
+    private final CyclicBarrier stopBarrier;
+    private final long[] operations;
+    private final LatencyHistogram[] insertLatencies;
+    private final LatencyHistogram[] retrieveLatencies;
+    private volatile int phase;
+    private volatile RuntimeException failure;
+
+    // These are written before the start barrier and so are seen by every
+    // thread that passes it. A null queue tells the threads to exit.
+    private PriorityQueue<Integer> queue;
+    private int activeThreads;
+    private float odds;
+
+    // Start a pool with the given number of threads.
+    public ThroughputPool(int totalThreads) {
+        threads = new Thread[totalThreads];
+        startBarrier = new CyclicBarrier(totalThreads + 1);
+        stopBarrier = new CyclicBarrier(totalThreads + 1);
+        operations = new long[totalThreads];
+        insertLatencies = new LatencyHistogram[totalThreads];
+        retrieveLatencies = new LatencyHistogram[totalThreads];
+        for (int threadID = 0; threadID < totalThreads; threadID++) {
+            final int workerID = threadID;
+            threads[threadID] = new Thread(() -> work(workerID), "throughput-" + threadID);
+            threads[threadID].setDaemon(true);
+            threads[threadID].start();
+        }
+    }
+
+    // Run the first activeThreads threads against a queue, inserting with the
+    // given odds, for a warmup and then a measured period. Add the measured
+    // operations and latencies to the results.
+    public void runTrial(
+        PriorityQueue<Integer> queue,
+        int activeThreads,
+        float odds,
+        int warmupMilliseconds,
+        int durationMilliseconds,
+        TestResults results) throws InterruptedException {
+
+        this.queue = queue;
+        this.activeThreads = activeThreads;
+        this.odds = odds;
+        phase = WARMUP;
+        awaitBarrier(startBarrier);
+
+        Thread.sleep(warmupMilliseconds);
+        long startTime = System.nanoTime();
+        phase = MEASURE;
+        Thread.sleep(durationMilliseconds);
+        phase = STOP;
+        long stopTime = System.nanoTime();
+        awaitBarrier(stopBarrier);
+        if (failure != null) {
+            throw new IllegalStateException("A throughput trial failed.", failure);
+        }
+
+        results.nanoseconds += stopTime - startTime;
+        for (int threadID = 0; threadID < activeThreads; threadID++) {
+            results.operations += operations[threadID];
+            results.insertLatencies.add(insertLatencies[threadID]);
+            results.retrieveLatencies.add(retrieveLatencies[threadID]);
+        }
+    }
+
+    // Stop every thread in the pool.
+    public void shutdown() throws InterruptedException {
+        queue = null;
+        awaitBarrier(startBarrier);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    // Run trials until the pool is shut down.
+    private void work(int workerID) {
+        Random random = new Random();
+        try {
+            while (true) {
+                awaitBarrier(startBarrier);
+                if (queue == null) {
+                    return;
+                }
+                // A failing thread still arrives at the stop barrier, so the
+                // trial ends and reports the failure instead of hanging.
+                if (workerID < activeThreads) {
+                    try {
+                        runWorker(workerID, random);
+                    }
+                    catch (RuntimeException exception) {
+                        failure = exception;
+                    }
+                }
+                awaitBarrier(stopBarrier);
+            }
+        }
+        catch (InterruptedException exception) {
+        }
+    }
+
+    // Manipulate the queue until the trial stops, counting only what happens
+    // after this thread sees the measured period begin.
+    private void runWorker(int workerID, Random random) {
+        PriorityQueue<Integer> queue = this.queue;
+        LatencyHistogram inserts = new LatencyHistogram();
+        LatencyHistogram retrieves = new LatencyHistogram();
+        long completed = 0;
+        boolean measuring = false;
+
+        int currentPhase;
+        while ((currentPhase = phase) != STOP) {
+            if (currentPhase == MEASURE && !measuring) {
+                measuring = true;
+                inserts = new LatencyHistogram();
+                retrieves = new LatencyHistogram();
+                completed = 0;
+            }
+
+            if (random.nextFloat() < odds) {
+                Integer element = random.nextInt();
+                long startTime = System.nanoTime();
+                queue.insert(element);
+                inserts.record(System.nanoTime() - startTime);
+            }
+            else {
+                long startTime = System.nanoTime();
+                try {
+                    queue.retrieve();
+                }
+                catch (EmptyQueueException exception) {
+                }
+                retrieves.record(System.nanoTime() - startTime);
+            }
+            completed++;
+        }
+
+        // A thread that never saw the measured period contributes nothing.
+        if (!measuring) {
+            inserts = new LatencyHistogram();
+            retrieves = new LatencyHistogram();
+            completed = 0;
+        }
+        operations[workerID] = completed;
+        insertLatencies[workerID] = inserts;
+        retrieveLatencies[workerID] = retrieves;
+    }
+
+    // Wait at a barrier until every thread in the pool and the caller arrive.
+    private static void awaitBarrier(CyclicBarrier barrier) throws InterruptedException {
+        try {
+            barrier.await();
+        }
+        catch (BrokenBarrierException exception) {
+            throw new IllegalStateException("A throughput trial was abandoned.", exception);
+        }
+    }
 }
@@ -0,0 +1,412 @@
+// An executor service that runs tasks in priority order using any of the
+// priority queues.
+
+package prioritetsko;
+
+import java.util.List;
+import java.lang.Comparable;
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+// Provides an executor service whose task queue is any priority queue. With a
+// strict queue, tasks with a smaller priority run first and tasks of equal
+// priority run in the order they were submitted. A relaxed queue, such as
+// MultiQueuePriorityQueue or ECPriorityQueue, may hand out a task ahead of
+// smaller ones, so the order is then only approximate, and with work stealing
+// it holds per worker queue rather than across them. Workers come from a thread factory, so they can be
+// platform or virtual threads, and each worker takes tasks in batches to cut
+// down on trips to the queue. With work stealing on, each worker has its own
+// queue: tasks submitted by a worker stay on its queue, other tasks are spread
+// round-robin, and an idle worker takes half a batch from another worker's
+// queue before it waits. Every task records how long it waited in the queue and
+// how long it ran, which afterExecute can inspect per task and the getters
+// report in aggregate.
+public class PriorityExecutorService extends AbstractExecutorService {
+    public static final int DEFAULT_PRIORITY = 0;
+
+    private static final int DEFAULT_BATCH_SIZE = 8;
+    private static final long IDLE_POLL_NANOS = 1000000L;
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+
+    private final BlockingPriorityQueue<Task>[] queues;
+    private final Thread[] workers;
+    private final int batchSize;
+    private final boolean workStealing;
+    private final ThreadLocal<Integer> workerIndex;
+
+    private final AtomicLong sequence;
+    private final AtomicInteger nextQueue;
+    private final AtomicInteger pending;
+    private final AtomicInteger liveWorkers;
+    private final CountDownLatch terminated;
+    private volatile int state;
+
+    private final LongAdder completedTasks;
+    private final LongAdder totalQueueNanos;
+    private final LongAdder totalRunNanos;
+    private final LongAccumulator maxQueueNanos;
+    private final LongAccumulator maxRunNanos;
+
+    // Create an executor with a number of platform worker threads sharing one
+    // queue from the factory.
+    public PriorityExecutorService(int workerCount, Supplier<PriorityQueue<Task>> queueFactory) {
+        this(workerCount, queueFactory, Executors.defaultThreadFactory(), DEFAULT_BATCH_SIZE, false);
+    }
+
+    // Create an executor with a number of workers from a thread factory. Each
+    // worker takes up to batchSize tasks at a time. With work stealing, every
+    // worker gets its own queue from the factory; otherwise they share one.
+    @SuppressWarnings("unchecked")
+    public PriorityExecutorService(
+        int workerCount,
+        Supplier<PriorityQueue<Task>> queueFactory,
+        ThreadFactory threadFactory,
+        int batchSize,
+        boolean workStealing) {
+
+        if (workerCount < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("The worker count and batch size must be positive.");
+        }
+        this.batchSize = batchSize;
+        this.workStealing = workStealing;
+
+        queues = (BlockingPriorityQueue<Task>[]) new BlockingPriorityQueue<?>[workStealing ? workerCount : 1];
+        for (int queueIndex = 0; queueIndex < queues.length; queueIndex++) {
+            queues[queueIndex] = new BlockingPriorityQueue<Task>(queueFactory.get());
+        }
+        workerIndex = new ThreadLocal<Integer>();
+
+        sequence = new AtomicLong();
+        nextQueue = new AtomicInteger();
+        pending = new AtomicInteger();
+        liveWorkers = new AtomicInteger(workerCount);
+        terminated = new CountDownLatch(1);
+        state = RUNNING;
+
+        completedTasks = new LongAdder();
+        totalQueueNanos = new LongAdder();
+        totalRunNanos = new LongAdder();
+        maxQueueNanos = new LongAccumulator(Math::max, 0);
+        maxRunNanos = new LongAccumulator(Math::max, 0);
+
+        workers = new Thread[workerCount];
+        for (int index = 0; index < workerCount; index++) {
+            int currentIndex = index;
+            workers[index] = threadFactory.newThread(() -> work(currentIndex));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    @Override
+    // Run a command at the default priority.
+    public void execute(Runnable command) {
+        execute(command, DEFAULT_PRIORITY);
+    }
+
+    // Run a command at a priority. Smaller priorities run first, as far as the
+    // queue orders them.
+    public void execute(Runnable command, int priority) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+
+        // Count the task before checking the state, so that a worker that
+        // sees the shutdown also sees this task and waits for it.
+        pending.incrementAndGet();
+        if (state != RUNNING) {
+            pending.decrementAndGet();
+            throw new RejectedExecutionException("The executor has been shut down.");
+        }
+
+        Task task = new Task(command, priority, sequence.getAndIncrement());
+        task.enqueueTime = System.nanoTime();
+        queues[chooseQueue()].insert(task);
+
+        // shutdownNow may have drained the queues between the state check and
+        // the insert, leaving the task where no worker will take it. As in
+        // ThreadPoolExecutor, take it back and reject it, unless a worker or
+        // shutdownNow claimed it first.
+        if (state == STOP && task.claim()) {
+            pending.decrementAndGet();
+            throw new RejectedExecutionException("The executor has been shut down.");
+        }
+    }
+
+    // Submit a runnable at a priority.
+    public Future<?> submit(Runnable task, int priority) {
+        FutureTask<Object> future = new FutureTask<Object>(task, null);
+        execute(future, priority);
+
+        return future;
+    }
+
+    // Submit a callable at a priority.
+    public <T> Future<T> submit(Callable<T> task, int priority) {
+        FutureTask<T> future = new FutureTask<T>(task);
+        execute(future, priority);
+
+        return future;
+    }
+
+    @Override
+    // Stop accepting tasks; the ones already queued still run.
+    public void shutdown() {
+        if (state == RUNNING) {
+            state = SHUTDOWN;
+        }
+    }
+
+    @Override
+    // Stop accepting tasks, interrupt the workers and return the tasks still
+    // queued. Tasks a worker has already taken into its batch are not in any
+    // queue, so that worker runs them before it exits rather than dropping
+    // them; their futures always complete. A task whose submitter took it back
+    // is skipped.
+    public List<Runnable> shutdownNow() {
+        state = STOP;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+
+        List<Task> drained = new ArrayList<Task>();
+        for (BlockingPriorityQueue<Task> queue : queues) {
+            queue.drainTo(drained);
+        }
+        List<Runnable> commands = new ArrayList<Runnable>(drained.size());
+        for (Task task : drained) {
+            if (task.claim()) {
+                commands.add(task.command);
+            }
+        }
+        pending.addAndGet(-commands.size());
+
+        return commands;
+    }
+
+    @Override
+    // Check if the executor has been shut down.
+    public boolean isShutdown() {
+        return state != RUNNING;
+    }
+
+    @Override
+    // Check if every worker has exited after a shutdown.
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    // Wait for every worker to exit after a shutdown.
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    // Get the number of tasks that have finished running.
+    public long getCompletedTasks() {
+        return completedTasks.sum();
+    }
+
+    // Get the average time tasks waited in the queue, in nanoseconds.
+    public double getAverageQueueNanos() {
+        long completed = completedTasks.sum();
+
+        return (completed == 0) ? 0 : ((double) totalQueueNanos.sum()) / completed;
+    }
+
+    // Get the longest time a task waited in the queue, in nanoseconds.
+    public long getMaximumQueueNanos() {
+        return maxQueueNanos.get();
+    }
+
+    // Get the average time tasks took to run, in nanoseconds.
+    public double getAverageRunNanos() {
+        long completed = completedTasks.sum();
+
+        return (completed == 0) ? 0 : ((double) totalRunNanos.sum()) / completed;
+    }
+
+    // Get the longest time a task took to run, in nanoseconds.
+    public long getMaximumRunNanos() {
+        return maxRunNanos.get();
+    }
+
+    // Called on the worker after every task with its timings filled in. Does
+    // nothing unless overridden.
+    protected void afterExecute(Task task) {}
+
+    // Pick the queue for a new task: the submitting worker's own when work
+    // stealing, otherwise the next one round-robin.
+    private int chooseQueue() {
+        if (queues.length == 1) {
+            return 0;
+        }
+
+        Integer index = workerIndex.get();
+        if (index != null) {
+            return index;
+        }
+
+        return Math.floorMod(nextQueue.getAndIncrement(), queues.length);
+    }
+
+    // A worker's main loop: take a batch, run it, and exit once shut down with
+    // nothing left to run.
+    private void work(int index) {
+        BlockingPriorityQueue<Task> queue = queues[workStealing ? index : 0];
+        ArrayList<Task> batch = new ArrayList<Task>(batchSize);
+        workerIndex.set(workStealing ? index : null);
+
+        try {
+            while (state != STOP) {
+                if (queue.drainTo(batch, batchSize) == 0 && !steal(index, batch)) {
+                    if (state != RUNNING && pending.get() == 0) {
+                        break;
+                    }
+                    try {
+                        Task task = queue.poll(IDLE_POLL_NANOS, TimeUnit.NANOSECONDS);
+                        if (task != null) {
+                            batch.add(task);
+                        }
+                    }
+                    catch (InterruptedException exception) {
+                        continue;
+                    }
+                }
+
+                // Drop any task its submitter took back after a shutdownNow.
+                batch.removeIf(task -> !task.claim());
+                pending.addAndGet(-batch.size());
+                for (Task task : batch) {
+                    runTask(task);
+                }
+                batch.clear();
+            }
+        }
+        finally {
+            if (liveWorkers.decrementAndGet() == 0) {
+                for (BlockingPriorityQueue<Task> each : queues) {
+                    each.finish();
+                }
+                terminated.countDown();
+            }
+        }
+    }
+
+    // Take half a batch from another worker's queue, starting at a random one.
+    private boolean steal(int index, ArrayList<Task> batch) {
+        if (!workStealing) {
+            return false;
+        }
+
+        int stealSize = Math.max(1, batchSize / 2);
+        int start = ThreadLocalRandom.current().nextInt(queues.length);
+        for (int offset = 0; offset < queues.length; offset++) {
+            int victim = (start + offset) % queues.length;
+            if (victim != index && queues[victim].drainTo(batch, stealSize) > 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Run a task, recording its timings. An exception from a plain runnable
+    // goes to the worker's uncaught exception handler, and the worker carries on.
+    private void runTask(Task task) {
+        task.startTime = System.nanoTime();
+        try {
+            task.command.run();
+        }
+        catch (RuntimeException | Error exception) {
+            Thread currentThread = Thread.currentThread();
+            currentThread.getUncaughtExceptionHandler().uncaughtException(currentThread, exception);
+        }
+        task.endTime = System.nanoTime();
+
+        long queueNanos = task.getQueueNanos();
+        long runNanos = task.getRunNanos();
+        totalQueueNanos.add(queueNanos);
+        totalRunNanos.add(runNanos);
+        maxQueueNanos.accumulate(queueNanos);
+        maxRunNanos.accumulate(runNanos);
+        completedTasks.increment();
+
+        afterExecute(task);
+    }
+
+    // A queued command with its priority, submission order and timings. The
+    // fields are package-private because the Deuce agent drops the nestmate
+    // attributes that would let the executor reach private members.
+    public static final class Task implements Comparable<Task> {
+        private static final AtomicIntegerFieldUpdater<Task> CLAIMED =
+            AtomicIntegerFieldUpdater.newUpdater(Task.class, "claimed");
+
+        final Runnable command;
+        final int priority;
+        final long sequence;
+        long enqueueTime;
+        long startTime;
+        long endTime;
+        volatile int claimed;
+
+        Task(Runnable command, int priority, long sequence) {
+            this.command = command;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        // Order by priority, then by submission.
+        public int compareTo(Task other) {
+            int result = Integer.compare(priority, other.priority);
+
+            return (result != 0) ? result : Long.compare(sequence, other.sequence);
+        }
+
+        // Claim the task for running, returning, or rejecting. Only the first
+        // claim succeeds.
+        boolean claim() {
+            return CLAIMED.compareAndSet(this, 0, 1);
+        }
+
+        // Get the command this task runs.
+        public Runnable getCommand() {
+            return command;
+        }
+
+        // Get this task's priority.
+        public int getPriority() {
+            return priority;
+        }
+
+        // Get how long this task waited in the queue, in nanoseconds.
+        public long getQueueNanos() {
+            return startTime - enqueueTime;
+        }
+
+        // Get how long this task ran, in nanoseconds.
+        public long getRunNanos() {
+            return endTime - startTime;
+        }
+    }
+}
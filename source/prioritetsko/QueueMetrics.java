@@ -0,0 +1,45 @@
+// Callbacks that priority queues report their internal events to.
+
+package prioritetsko;
+
+// A sink for priority queue events. Every method does nothing by default, so a
+// subclass only overrides what it cares about, and queues start out with NONE,
+// whose empty calls the JIT inlines away. Queues call these methods on their
+// hot paths, so subclasses must be thread-safe and cheap. This is an abstract
+// class rather than an interface with default methods because the Deuce agent
+// rejects default methods, and every queue class refers to it.
+public abstract class QueueMetrics {
+
+    // A sink that ignores every event.
+    public static final QueueMetrics NONE = new QueueMetrics() {};
+
+    // Some elements were inserted.
+    public void onInsert(int count) {}
+
+    // Some elements were retrieved.
+    public void onRetrieve(int count) {}
+
+    // A retrieval found the queue empty.
+    public void onEmptyRetrieve() {}
+
+    // A compare-and-set on shared state lost a race.
+    public void onCasFailure() {}
+
+    // An operation started over or was handed to a slower path.
+    public void onRetry() {}
+
+    // An operation tried to pair off through elimination, and whether it did.
+    public void onElimination(boolean hit) {}
+
+    // A combiner served a batch of requests in one pass.
+    public void onCombinerBatch(int size) {}
+
+    // A transaction aborted.
+    public void onAbort() {}
+
+    // An operation gave up on transactions and took a lock instead.
+    public void onFallback() {}
+
+    // A thread waited this long to acquire a lock.
+    public void onContention(long nanos) {}
+}
@@ -0,0 +1,221 @@
+// Striped counters for priority queue events, exported through JMX.
+
+package prioritetsko;
+
+import javax.management.ObjectName;
+import javax.management.JMException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+
+// Counts every event a priority queue reports. Each counter is a LongAdder, so
+// threads recording at the same time update separate cells instead of fighting
+// over one word. The depth is the difference between insertions and
+// retrievals, so it is only meaningful when every operation reports (for
+// example through a MeteredPriorityQueue). Register an instance to read it from
+// any JMX console.
+public class QueueStatistics extends QueueMetrics implements QueueStatisticsMBean {
+    private static final String DOMAIN = "prioritetsko";
+
+    private final LongAdder inserts = new LongAdder();
+    private final LongAdder retrieves = new LongAdder();
+    private final LongAdder emptyRetrieves = new LongAdder();
+    private final LongAdder casFailures = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder eliminationAttempts = new LongAdder();
+    private final LongAdder eliminationHits = new LongAdder();
+    private final LongAdder combinerBatches = new LongAdder();
+    private final LongAdder combinedRequests = new LongAdder();
+    private final LongAccumulator maximumCombinerBatch = new LongAccumulator(Math::max, 0);
+    private final LongAdder aborts = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder contentionNanos = new LongAdder();
+    private final LongAdder lockAcquisitions = new LongAdder();
+
+    @Override
+    public void onInsert(int count) {
+        inserts.add(count);
+    }
+
+    @Override
+    public void onRetrieve(int count) {
+        retrieves.add(count);
+    }
+
+    @Override
+    public void onEmptyRetrieve() {
+        emptyRetrieves.increment();
+    }
+
+    @Override
+    public void onCasFailure() {
+        casFailures.increment();
+    }
+
+    @Override
+    public void onRetry() {
+        retries.increment();
+    }
+
+    @Override
+    public void onElimination(boolean hit) {
+        eliminationAttempts.increment();
+        if (hit) {
+            eliminationHits.increment();
+        }
+    }
+
+    @Override
+    public void onCombinerBatch(int size) {
+        combinerBatches.increment();
+        combinedRequests.add(size);
+        maximumCombinerBatch.accumulate(size);
+    }
+
+    @Override
+    public void onAbort() {
+        aborts.increment();
+    }
+
+    @Override
+    public void onFallback() {
+        fallbacks.increment();
+    }
+
+    @Override
+    public void onContention(long nanos) {
+        contentionNanos.add(nanos);
+        lockAcquisitions.increment();
+    }
+
+    @Override
+    public long getInserts() {
+        return inserts.sum();
+    }
+
+    @Override
+    public long getRetrieves() {
+        return retrieves.sum();
+    }
+
+    @Override
+    // Get the number of elements inserted but not yet retrieved.
+    public long getDepth() {
+        return inserts.sum() - retrieves.sum();
+    }
+
+    @Override
+    public long getEmptyRetrieves() {
+        return emptyRetrieves.sum();
+    }
+
+    @Override
+    public long getCasFailures() {
+        return casFailures.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getEliminationAttempts() {
+        return eliminationAttempts.sum();
+    }
+
+    @Override
+    public long getEliminationHits() {
+        return eliminationHits.sum();
+    }
+
+    @Override
+    // Get the fraction of elimination attempts that paired off.
+    public double getEliminationHitRate() {
+        long attempts = eliminationAttempts.sum();
+
+        return (attempts == 0) ? 0 : ((double) eliminationHits.sum()) / attempts;
+    }
+
+    @Override
+    public long getCombinerBatches() {
+        return combinerBatches.sum();
+    }
+
+    @Override
+    public double getAverageCombinerBatchSize() {
+        long batches = combinerBatches.sum();
+
+        return (batches == 0) ? 0 : ((double) combinedRequests.sum()) / batches;
+    }
+
+    @Override
+    public long getMaximumCombinerBatchSize() {
+        return maximumCombinerBatch.get();
+    }
+
+    @Override
+    public long getAborts() {
+        return aborts.sum();
+    }
+
+    @Override
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    @Override
+    // Get the total time threads spent waiting for locks, in nanoseconds.
+    public long getContentionNanos() {
+        return contentionNanos.sum();
+    }
+
+    @Override
+    // Get the number of timed lock acquisitions, whether or not they had to wait.
+    public long getLockAcquisitions() {
+        return lockAcquisitions.sum();
+    }
+
+    @Override
+    // Zero every counter.
+    public void reset() {
+        inserts.reset();
+        retrieves.reset();
+        emptyRetrieves.reset();
+        casFailures.reset();
+        retries.reset();
+        eliminationAttempts.reset();
+        eliminationHits.reset();
+        combinerBatches.reset();
+        combinedRequests.reset();
+        maximumCombinerBatch.reset();
+        aborts.reset();
+        fallbacks.reset();
+        contentionNanos.reset();
+        lockAcquisitions.reset();
+    }
+
+    // Export these statistics to the platform MBean server under the given
+    // name, and get the name they were registered under.
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=QueueStatistics,name=" + name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+
+            return objectName;
+        }
+        catch (JMException exception) {
+            throw new IllegalStateException("Could not register the queue statistics.", exception);
+        }
+    }
+
+    // Remove these statistics from the platform MBean server.
+    public void unregister(ObjectName objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+        catch (JMException exception) {
+            throw new IllegalStateException("Could not unregister the queue statistics.", exception);
+        }
+    }
+}
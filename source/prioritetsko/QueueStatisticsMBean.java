@@ -0,0 +1,24 @@
+// The JMX view of a QueueStatistics instance.
+
+package prioritetsko;
+
+// Attributes and operations of the queue statistics exported through JMX.
+public interface QueueStatisticsMBean {
+    long getInserts();
+    long getRetrieves();
+    long getDepth();
+    long getEmptyRetrieves();
+    long getCasFailures();
+    long getRetries();
+    long getEliminationAttempts();
+    long getEliminationHits();
+    double getEliminationHitRate();
+    long getCombinerBatches();
+    double getAverageCombinerBatchSize();
+    long getMaximumCombinerBatchSize();
+    long getAborts();
+    long getFallbacks();
+    long getContentionNanos();
+    long getLockAcquisitions();
+    void reset();
+}
@@ -0,0 +1,135 @@
+// Compares read-heavy workloads on the synchronized and stamped priority queues
+// and outputs the results to stdout. This program is executed like so:
+//     $ java ReadHeavyBenchmark <readerThreads> <writerThreads> <milliseconds> [queueDepth]
+
+package prioritetsko;
+
+import java.util.Random;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Benchmark threads polling peek, size and isEmpty against threads that insert
+// and retrieve.
+public class ReadHeavyBenchmark {
+    private static final int DEFAULT_DEPTH = 10000;
+
+    // Main entry point to this program.
+    public static void main(String[] argumentsVector) throws InterruptedException {
+        if (argumentsVector.length < 3) {
+            System.err.println(
+                "Arguments: <readerThreads> <writerThreads> <milliseconds> [queueDepth]"
+            );
+            System.exit(1);
+        }
+
+        int readerThreads = 0;
+        int writerThreads = 0;
+        int milliseconds = 0;
+        int queueDepth = DEFAULT_DEPTH;
+        try {
+            readerThreads = Integer.parseInt(argumentsVector[0]);
+            writerThreads = Integer.parseInt(argumentsVector[1]);
+            milliseconds = Integer.parseInt(argumentsVector[2]);
+            if (argumentsVector.length > 3) {
+                queueDepth = Integer.parseInt(argumentsVector[3]);
+            }
+        }
+        catch (NumberFormatException exception) {
+            System.err.println("Your arguments must all be integers.");
+            System.exit(2);
+        }
+
+        // Warm up each queue once so that the first one measured is not also
+        // the one paying for compilation.
+        for (int runID = 0; runID < 2; runID++) {
+            ArrayList<SequentialPriorityQueue<Integer>> queues =
+                new ArrayList<SequentialPriorityQueue<Integer>>();
+            queues.add(new SynchronizedPriorityQueue<Integer>());
+            queues.add(new StampedPriorityQueue<Integer>());
+
+            for (SequentialPriorityQueue<Integer> queue : queues) {
+                long[] results = runTest(
+                    queue,
+                    readerThreads,
+                    writerThreads,
+                    milliseconds,
+                    queueDepth
+                );
+                if (runID > 0) {
+                    System.out.printf(
+                        "Queue: %-27s | Reads/ms: %10.1f | Writes/ms: %10.1f\n",
+                        queue.getClass().getSimpleName(),
+                        ((double) results[0]) / milliseconds,
+                        ((double) results[1]) / milliseconds
+                    );
+                }
+            }
+        }
+    }
+
+    // Prefill a queue, then let readers and writers hammer it for a while.
+    // Returns the number of reads and writes completed.
+    private static long[] runTest(
+        SequentialPriorityQueue<Integer> queue,
+        int readerThreads,
+        int writerThreads,
+        int milliseconds,
+        int queueDepth) throws InterruptedException {
+
+        Random random = new Random(queueDepth);
+        for (int count = 0; count < queueDepth; count++) {
+            queue.insert(random.nextInt());
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder reads = new LongAdder();
+        LongAdder writes = new LongAdder();
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+
+        for (int threadID = 0; threadID < readerThreads; threadID++) {
+            threads.add(new Thread(() -> {
+                long count = 0;
+                while (running.get()) {
+                    try {
+                        queue.peek();
+                    }
+                    catch (EmptyQueueException exception) {
+                    }
+                    queue.size();
+                    queue.isEmpty();
+                    count += 3;
+                }
+                reads.add(count);
+            }));
+        }
+        for (int threadID = 0; threadID < writerThreads; threadID++) {
+            int seed = threadID;
+            threads.add(new Thread(() -> {
+                Random threadRandom = new Random(seed);
+                long count = 0;
+                while (running.get()) {
+                    queue.insert(threadRandom.nextInt());
+                    try {
+                        queue.retrieve();
+                    }
+                    catch (EmptyQueueException exception) {
+                    }
+                    count += 2;
+                }
+                writes.add(count);
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(milliseconds);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        return new long[] {reads.sum(), writes.sum()};
+    }
+}
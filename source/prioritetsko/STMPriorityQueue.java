@@ -4,21 +4,57 @@
 package prioritetsko;
 
 import org.deuce.Atomic;
+import java.util.List;
 import java.lang.Comparable;
 import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
 import org.deuce.transaction.TransactionException;
 
 // Provides a parallelized priority queue using software transactional memory.
+// Single insertions and retrievals run their transactions one attempt at a
+// time, so that each abort can be reported to the metrics from outside the
+// transaction, where reporting cannot itself be rolled back or repeated.
 public class STMPriorityQueue
     <E extends Comparable<E>>
     extends SequentialPriorityQueue<E> {
 
+    private volatile QueueMetrics metrics = QueueMetrics.NONE;
+
+    // Create a new, empty transactional priority queue.
+    public STMPriorityQueue() {
+        super();
+    }
+
+    // Create a new, empty transactional priority queue where each parent has arity children.
+    public STMPriorityQueue(int arity) {
+        super(arity);
+    }
+
+    // Create a new, empty transactional priority queue with a given arity and layout.
+    public STMPriorityQueue(int arity, boolean aligned) {
+        super(arity, aligned);
+    }
+
     @Override
-    @Atomic
-    // Insert an element. If the transaction fails, start over.
+    // Insert an element. If the transaction fails, count the abort and start over.
     public void insert(E element) {
+        while (true) {
+            try {
+                attemptInsert(element);
+                return;
+            }
+            catch (TransactionException exception) {
+                metrics.onAbort();
+            }
+        }
+    }
+
+    @Override
+    @Atomic
+    // Insert a bunch of elements. If the transaction fails, start over.
+    public void insert(Collection<? extends E> collection) {
         try {
-            super.insert(element);
+            super.insert(collection);
         }
         catch (NullPointerException | IndexOutOfBoundsException exception) {
             throw new TransactionException();
@@ -27,8 +63,9 @@ public class STMPriorityQueue
 
     @Override
     @Atomic
-    // Insert a bunch of elements. If the transaction fails, start over.
-    public void insert(Collection<? extends E> collection) {
+    // Insert a bunch of elements. Worker threads cannot join the transaction, so
+    // the heap is rebuilt on this thread. If the transaction fails, start over.
+    public void insertParallel(Collection<? extends E> collection, ForkJoinPool pool) {
         try {
             super.insert(collection);
         }
@@ -38,11 +75,51 @@ public class STMPriorityQueue
     }
 
     @Override
-    @Atomic
-    // Retrieve an element. If the transaction fails, start over.
+    // Retrieve an element. If the transaction fails, count the abort and start over.
     public E retrieve() throws EmptyQueueException {
+        while (true) {
+            try {
+                return attemptRetrieve();
+            }
+            catch (TransactionException exception) {
+                metrics.onAbort();
+            }
+        }
+    }
+
+    @Override
+    @Atomic
+    // Retrieve up to count elements in one transaction. If the transaction
+    // fails, start over.
+    public List<E> retrieve(int count) throws EmptyQueueException {
         try {
-            return super.retrieve();
+            return super.retrieve(count);
+        }
+        catch (NullPointerException | IndexOutOfBoundsException exception) {
+            throw new TransactionException();
+        }
+    }
+
+    @Override
+    @Atomic
+    // Drain up to maxElements elements into a collection in one transaction. If
+    // the transaction fails, start over.
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        try {
+            return super.drainTo(collection, maxElements);
+        }
+        catch (NullPointerException | IndexOutOfBoundsException exception) {
+            throw new TransactionException();
+        }
+    }
+
+    @Override
+    @Atomic
+    // Retrieve every element in order. Only the private copy is sorted in
+    // parallel. If the transaction fails, start over.
+    public List<E> drainSorted() {
+        try {
+            return super.drainSorted();
         }
         catch (NullPointerException | IndexOutOfBoundsException exception) {
             throw new TransactionException();
@@ -108,4 +185,31 @@ public class STMPriorityQueue
             throw new TransactionException();
         }
     }
+
+    // Report transaction aborts to the given metrics.
+    public void setMetrics(QueueMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Atomic(retries = 1)
+    // Insert an element in one transactional attempt.
+    private void attemptInsert(E element) {
+        try {
+            super.insert(element);
+        }
+        catch (NullPointerException | IndexOutOfBoundsException exception) {
+            throw new TransactionException();
+        }
+    }
+
+    @Atomic(retries = 1)
+    // Retrieve an element in one transactional attempt.
+    private E attemptRetrieve() throws EmptyQueueException {
+        try {
+            return super.retrieve();
+        }
+        catch (NullPointerException | IndexOutOfBoundsException exception) {
+            throw new TransactionException();
+        }
+    }
 }
@@ -0,0 +1,102 @@
+// Compares priority queues behind the priority executor service and outputs the
+// results to stdout. This program is executed like so:
+//     $ java SchedulerBenchmark <workers> <totalTasks> <taskMicros> [batchSize]
+
+package prioritetsko;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.concurrent.Executors;
+
+// Benchmark task scheduling through each queue, with and without work stealing.
+public class SchedulerBenchmark {
+    private static final int DEFAULT_BATCH_SIZE = 8;
+
+    // Main entry point to this program.
+    public static void main(String[] argumentsVector) throws InterruptedException {
+        if (argumentsVector.length < 3) {
+            System.err.println("Arguments: <workers> <totalTasks> <taskMicros> [batchSize]");
+            System.exit(1);
+        }
+
+        int workers = 0;
+        int totalTasks = 0;
+        int taskMicros = 0;
+        int batchSize = DEFAULT_BATCH_SIZE;
+        try {
+            workers = Integer.parseInt(argumentsVector[0]);
+            totalTasks = Integer.parseInt(argumentsVector[1]);
+            taskMicros = Integer.parseInt(argumentsVector[2]);
+            if (argumentsVector.length > 3) {
+                batchSize = Integer.parseInt(argumentsVector[3]);
+            }
+        }
+        catch (NumberFormatException exception) {
+            System.err.println("Your arguments must all be integers.");
+            System.exit(2);
+        }
+
+        // The first round only warms up.
+        for (int runID = 0; runID < 2; runID++) {
+            for (boolean workStealing : new boolean[] {false, true}) {
+                runTest("Synchronized", SynchronizedPriorityQueue::new,
+                    workers, totalTasks, taskMicros, batchSize, workStealing, runID > 0);
+                runTest("EC", ECPriorityQueue::new,
+                    workers, totalTasks, taskMicros, batchSize, workStealing, runID > 0);
+                runTest("SkipList", SkipListPriorityQueue::new,
+                    workers, totalTasks, taskMicros, batchSize, workStealing, runID > 0);
+            }
+        }
+    }
+
+    // Submit every task from the calling thread, wait for them all to finish
+    // and print the throughput and latencies.
+    private static void runTest(
+        String name,
+        Supplier<PriorityQueue<PriorityExecutorService.Task>> queueFactory,
+        int workers,
+        int totalTasks,
+        int taskMicros,
+        int batchSize,
+        boolean workStealing,
+        boolean report) throws InterruptedException {
+
+        PriorityExecutorService executor = new PriorityExecutorService(
+            workers,
+            queueFactory,
+            Executors.defaultThreadFactory(),
+            batchSize,
+            workStealing
+        );
+        Random random = new Random(totalTasks);
+        long taskNanos = taskMicros * 1000L;
+        Runnable task = () -> {
+            long stopTime = System.nanoTime() + taskNanos;
+            while (System.nanoTime() < stopTime) {
+                Thread.onSpinWait();
+            }
+        };
+
+        long startTime = System.nanoTime();
+        for (int count = 0; count < totalTasks; count++) {
+            executor.execute(task, random.nextInt(100));
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        long stopTime = System.nanoTime();
+
+        if (report) {
+            System.out.printf(
+                "Queue: %-12s | Stealing: %-5b | Tasks/ms: %9.1f | "
+                    + "Queue avg/max us: %10.1f / %10.1f | Run avg us: %6.1f\n",
+                name,
+                workStealing,
+                totalTasks / ((stopTime - startTime) / 1000000.0),
+                executor.getAverageQueueNanos() / 1000,
+                executor.getMaximumQueueNanos() / 1000.0,
+                executor.getAverageRunNanos() / 1000
+            );
+        }
+    }
+}
@@ -0,0 +1,167 @@
+// A sequential priority queue of primitive int keys.
+
+package prioritetsko;
+
+import java.util.Arrays;
+
+// Provides a sequential priority queue of int keys backed by an int array.
+// Nothing is boxed and nothing is allocated unless the array has to grow.
+public class SequentialIntPriorityQueue implements IntPriorityQueue {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] elements;
+    private int size;
+
+    // Create a new, empty priority queue.
+    public SequentialIntPriorityQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // Create a new, empty priority queue with room for some elements.
+    public SequentialIntPriorityQueue(int initialCapacity) {
+        elements = new int[Math.max(1, initialCapacity)];
+        size = 0;
+    }
+
+    // Create a new priority queue with an array of elements. The heap is built
+    // bottom-up in linear time.
+    public SequentialIntPriorityQueue(int[] array) {
+        this(array.length);
+        insert(array);
+    }
+
+    @Override
+    // Add an element to the priority queue.
+    public void insert(int element) {
+        if (size == elements.length) {
+            grow(size + 1);
+        }
+        percolateElementUp(size++, element);
+    }
+
+    // Add an array of elements to the priority queue. If the array is at least
+    // as large as the queue, the whole heap is rebuilt bottom-up in linear time
+    // (Floyd's method), otherwise each new element is percolated up on its own.
+    public void insert(int[] array) {
+        if (size + array.length > elements.length) {
+            grow(size + array.length);
+        }
+        if (array.length >= size) {
+            System.arraycopy(array, 0, elements, size, array.length);
+            size += array.length;
+            for (int parentIndex = (size >>> 1) - 1; parentIndex >= 0; parentIndex--) {
+                percolateElementDown(parentIndex, elements[parentIndex]);
+            }
+        }
+        else {
+            for (int element : array) {
+                percolateElementUp(size++, element);
+            }
+        }
+    }
+
+    @Override
+    // Get and remove the element at the front of the priority queue.
+    public int retrieve() throws EmptyQueueException {
+        if (size == 0) {
+            throw new EmptyQueueException("The priority queue is empty!");
+        }
+
+        // Move the last element into the hole left at the front.
+        int retrievedElement = elements[0];
+        int lastElement = elements[--size];
+        if (size > 0) {
+            percolateElementDown(0, lastElement);
+        }
+
+        return retrievedElement;
+    }
+
+    // Get the element at the front of the priority queue.
+    public int peek() throws EmptyQueueException {
+        if (size == 0) {
+            throw new EmptyQueueException("The priority queue is empty!");
+        }
+
+        return elements[0];
+    }
+
+    // Check if the priority queue is empty.
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Get a string representation of this priority queue.
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+
+        for (int elementIndex = 0; elementIndex < size; elementIndex++) {
+            if (elementIndex > 0) {
+                stringBuilder.append(" ");
+            }
+            stringBuilder.append(elements[elementIndex]);
+        }
+
+        return stringBuilder.toString();
+    }
+
+    // Clear out the priority queue.
+    public void clear() {
+        size = 0;
+    }
+
+    // Get the size of the priority queue.
+    public int size() {
+        return size;
+    }
+
+    @Override
+    // Only necessary to match the priority queue interface.
+    public void finish() {}
+
+    // Grow the backing array to hold at least the given number of elements.
+    private void grow(int minimumCapacity) {
+        int newCapacity = Math.max(minimumCapacity, elements.length + (elements.length >> 1));
+        elements = Arrays.copyOf(elements, newCapacity);
+    }
+
+    // Move a hole up from the given index until the element fits, then fill it.
+    private void percolateElementUp(int initialIndex, int element) {
+        int[] heap = elements;
+        int currentIndex = initialIndex;
+
+        while (currentIndex > 0) {
+            int parentIndex = (currentIndex - 1) >>> 1;
+            int parentElement = heap[parentIndex];
+            if (parentElement <= element) {
+                break;
+            }
+            heap[currentIndex] = parentElement;
+            currentIndex = parentIndex;
+        }
+        heap[currentIndex] = element;
+    }
+
+    // Move a hole down from the given index until the element fits, then fill it.
+    private void percolateElementDown(int initialIndex, int element) {
+        int[] heap = elements;
+        int currentIndex = initialIndex;
+        int half = size >>> 1;
+
+        while (currentIndex < half) {
+            int childIndex = (currentIndex << 1) + 1;
+            int childElement = heap[childIndex];
+            int rightChildIndex = childIndex + 1;
+            if (rightChildIndex < size && heap[rightChildIndex] < childElement) {
+                childIndex = rightChildIndex;
+                childElement = heap[childIndex];
+            }
+            if (element <= childElement) {
+                break;
+            }
+            heap[currentIndex] = childElement;
+            currentIndex = childIndex;
+        }
+        heap[currentIndex] = element;
+    }
+}
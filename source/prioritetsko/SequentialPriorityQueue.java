@@ -3,72 +3,184 @@
 
 package prioritetsko;
 
+import java.util.List;
+import java.util.Arrays;
 import java.util.ArrayList;
 import java.lang.Comparable;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 // Provides a sequential, generic priority queue.
 public class SequentialPriorityQueue
     <E extends Comparable<E>>
     implements PriorityQueue<E> {
 
-    private ArrayList<E> elements;
+    private static final int DEFAULT_ARITY = 2;
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // The heap lives in a plain array rather than an ArrayList so that every
+    // slot access is a field or array access in this class, which the STM
+    // subclasses need: the Deuce agent cannot instrument java.util, so reads
+    // and writes made inside an ArrayList would be invisible to transactions.
+    // For the same reason the slots are only ever copied with loops here.
+    private E[] elements;
+    private int slotCount;
+    private final int arity;
+    private final int offset;
 
     // Create a new, empty priority queue.
     public SequentialPriorityQueue() {
-        elements = new ArrayList<E>();
+        this(DEFAULT_ARITY, false);
     }
 
-    // Create a new priority queue with a collection of elements.
-    public SequentialPriorityQueue(Collection<? extends E> collection) {
-        elements = new ArrayList<E>();
+    // Create a new, empty priority queue where each parent has arity children.
+    public SequentialPriorityQueue(int arity) {
+        this(arity, false);
+    }
 
-        for (E element : collection) {
-            insert(element);
+    // Create a new, empty priority queue where each parent has arity children.
+    // If aligned is set, the root is shifted so that every group of siblings
+    // starts at a multiple of arity in the backing array. With an arity that
+    // fills a cache line, each group of siblings then shares one line.
+    public SequentialPriorityQueue(int arity, boolean aligned) {
+        if (arity < 2) {
+            throw new IllegalArgumentException("The arity must be at least 2.");
         }
+        this.arity = arity;
+        this.offset = aligned ? arity - 1 : 0;
+
+        // The padding slots in front of the root are never read.
+        elements = newArray(offset + INITIAL_CAPACITY);
+        slotCount = offset;
+    }
+
+    // Create a new priority queue with a collection of elements. The heap is
+    // built bottom-up in linear time.
+    public SequentialPriorityQueue(Collection<? extends E> collection) {
+        this();
+
+        appendAll(collection);
+        heapify();
     }
 
     @Override
     // Add an element to the priority queue.
     public void insert(E element) {
 
-        // The element is added to the end of the elements list and then is
+        // The element is added to the end of the heap and then is
         // percolated up to its appropriate position.
-        elements.add(element);
+        append(element);
         percolateElementUp(getMaxIndex());
     }
 
-    // Add a collection of elements to the priority queue.
+    // Add a collection of elements to the priority queue. If the collection is
+    // at least as large as the queue, the whole heap is rebuilt bottom-up in
+    // linear time, otherwise each new element is percolated up on its own.
     public void insert(Collection<? extends E> collection) {
-        for (E element : collection) {
-            insert(element);
+        int initialSize = getMaxIndex() + 1;
+
+        appendAll(collection);
+        if (collection.size() >= initialSize) {
+            heapify();
+        }
+        else {
+            for (int elementIndex = initialSize; elementIndex <= getMaxIndex(); elementIndex++) {
+                percolateElementUp(elementIndex);
+            }
+        }
+    }
+
+    // Add a collection of elements to the priority queue, rebuilding the whole
+    // heap bottom-up with subtrees heapified in parallel on the common pool.
+    public void insertParallel(Collection<? extends E> collection) {
+        insertParallel(collection, ForkJoinPool.commonPool());
+    }
+
+    // Add a collection of elements to the priority queue, rebuilding the whole
+    // heap bottom-up with subtrees heapified in parallel on the given pool.
+    public void insertParallel(Collection<? extends E> collection, ForkJoinPool pool) {
+        appendAll(collection);
+        if (getMaxIndex() >= 1) {
+            pool.invoke(new HeapifyTask(0));
         }
     }
 
     @Override
     // Get and remove the element at the front of the priority queue.
     public E retrieve() throws EmptyQueueException {
+        return retrieveFront();
+    }
 
-        // Attempt to retrieve the front element. If the queue is empty, throw
-        // an exception.
-        E retrievedElement;
-        try {
-            retrievedElement = elements.get(0);
-        }
-        catch (IndexOutOfBoundsException exception) {
+    // Get and remove up to count elements from the front of the priority queue,
+    // in priority order. If the queue is empty, throw an exception.
+    public List<E> retrieve(int count) throws EmptyQueueException {
+        if (isEmptyHeap()) {
             throw new EmptyQueueException("The priority queue is empty!");
         }
 
-        // Attempt to move the element at the back of the elements list to the
-        // front, then percolate that element down. If this causes an index
-        // error (because the retrieved element from earlier was the only
-        // element in the queue) then do nothing.
+        List<E> retrievedElements = new ArrayList<E>(Math.max(0, Math.min(count, getMaxIndex() + 1)));
+        drainFront(retrievedElements, count);
+
+        return retrievedElements;
+    }
+
+    // Move up to maxElements elements from the front of the priority queue into
+    // a collection, in priority order. Returns how many elements were moved.
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        return drainFront(collection, maxElements);
+    }
+
+    // Move up to maxElements elements from the front of the priority queue into
+    // a collection without going through any overridable method.
+    private int drainFront(Collection<? super E> collection, int maxElements) {
+        int drainedElements = 0;
         try {
-            elements.set(0, elements.remove(getMaxIndex()));
-            percolateElementDown(0);
+            while (drainedElements < maxElements && !isEmptyHeap()) {
+                collection.add(retrieveFront());
+                drainedElements++;
+            }
+        }
+        catch (EmptyQueueException exception) {
         }
-        catch (IndexOutOfBoundsException exception) {
+
+        return drainedElements;
+    }
+
+    // Get and remove every element in priority order. The elements are sorted
+    // with a parallel merge sort instead of being retrieved one at a time.
+    public List<E> drainSorted() {
+        E[] sortedElements = newArray(getMaxIndex() + 1);
+        for (int elementIndex = 0; elementIndex < sortedElements.length; elementIndex++) {
+            sortedElements[elementIndex] = elements[offset + elementIndex];
+        }
+        clearHeap();
+        Arrays.parallelSort(sortedElements);
+
+        return Arrays.asList(sortedElements);
+    }
+
+    // Get and remove the element at the front of the priority queue.
+    private E retrieveFront() throws EmptyQueueException {
+
+        // Retrieve the front element. If the queue is empty, throw an
+        // exception.
+        if (isEmptyHeap()) {
+            throw new EmptyQueueException("The priority queue is empty!");
+        }
+        E retrievedElement = elements[offset];
+
+        // Move the element at the back of the heap to the front, then
+        // percolate that element down, unless the retrieved element was the
+        // only one in the queue.
+        slotCount--;
+        E lastElement = elements[slotCount];
+        elements[slotCount] = null;
+        if (!isEmptyHeap()) {
+            elements[offset] = lastElement;
+            percolateElementDown(0);
         }
 
         return retrievedElement;
@@ -76,139 +188,248 @@ public class SequentialPriorityQueue
 
     // Get the element at the front of the priority queue.
     public E peek() throws EmptyQueueException {
-        try {
-            return elements.get(0);
-        }
-        catch (IndexOutOfBoundsException exception) {
+        if (isEmptyHeap()) {
             throw new EmptyQueueException("The priority queue is empty!");
         }
+
+        return elements[offset];
     }
 
     // Check if the priority queue is empty.
     public boolean isEmpty() {
-        return elements.isEmpty();
+        return isEmptyHeap();
     }
 
     // Get a string representation of this priority queue.
     public String toString() {
         StringBuilder stringBuilder = new StringBuilder();
 
-        for (int elementIndex = 1; elementIndex < (getMaxIndex()); elementIndex++) {
-            stringBuilder.append(elements.get(elementIndex));
-            stringBuilder.append(" ");
+        for (int elementIndex = offset; elementIndex < slotCount; elementIndex++) {
+            if (elementIndex > offset) {
+                stringBuilder.append(" ");
+            }
+            stringBuilder.append(elements[elementIndex]);
         }
-        stringBuilder.append(elements.get(getMaxIndex()));
 
         return stringBuilder.toString();
     }
 
     // Clear out the priority queue.
     public void clear() {
-        elements.clear();
+        clearHeap();
     }
 
     // Get the size of the priority queue.
     public int size() {
-        return elements.size();
+        return slotCount - offset;
+    }
+
+    // Get the number of children each parent has.
+    public int getArity() {
+        return arity;
     }
 
     @Override
     // Only necessary to match the priority queue interface.
     public void finish() {}
 
-    // Get a parent's left child's index.
-    private int getLeftChildIndex(int parentIndex) {
-        return (parentIndex * 2) + 1;
-    }
-
-    // Get a parent's right child's index.
-    private int getRightChildIndex(int parentIndex) {
-        return (parentIndex * 2) + 2;
+    // Get a parent's first child's index.
+    private int getFirstChildIndex(int parentIndex) {
+        return (parentIndex * arity) + 1;
     }
 
     // Get a child's parent's index.
     private int getParentIndex(int childIndex) {
-        return (childIndex - 1) / 2;
+        return (childIndex - 1) / arity;
+    }
+
+    // Check if the heap is empty without going through an overridable method.
+    private boolean isEmptyHeap() {
+        return slotCount == offset;
+    }
+
+    // Remove every element without going through an overridable method.
+    private void clearHeap() {
+        for (int elementIndex = offset; elementIndex < slotCount; elementIndex++) {
+            elements[elementIndex] = null;
+        }
+        slotCount = offset;
+    }
+
+    // Add an element to the back of the heap, growing the array if needed.
+    private void append(E element) {
+        ensureCapacity(slotCount + 1);
+        elements[slotCount] = element;
+        slotCount++;
+    }
+
+    // Add every element of a collection to the back of the heap.
+    private void appendAll(Collection<? extends E> collection) {
+        ensureCapacity(slotCount + collection.size());
+        for (E element : collection) {
+            elements[slotCount] = element;
+            slotCount++;
+        }
+    }
+
+    // Make room for at least the given number of slots, at least doubling the
+    // array each time it grows.
+    private void ensureCapacity(int minimumSlots) {
+        if (minimumSlots <= elements.length) {
+            return;
+        }
+
+        E[] grownElements = newArray(Math.max(minimumSlots, elements.length * 2));
+        for (int elementIndex = 0; elementIndex < slotCount; elementIndex++) {
+            grownElements[elementIndex] = elements[elementIndex];
+        }
+        elements = grownElements;
+    }
+
+    // Create an array that can hold elements.
+    @SuppressWarnings("unchecked")
+    private E[] newArray(int length) {
+        return (E[]) new Comparable<?>[length];
+    }
+
+    // Restore the heap property over the whole elements list by percolating
+    // every parent down, starting from the last one (Floyd's method).
+    private void heapify() {
+        if (getMaxIndex() < 1) {
+            return;
+        }
+        for (int parentIndex = getParentIndex(getMaxIndex()); parentIndex >= 0; parentIndex--) {
+            percolateElementDown(parentIndex);
+        }
+    }
+
+    // Restore the heap property over the subtree rooted at a parent, children
+    // first, on the calling thread.
+    private void heapifySubtree(int parentIndex) {
+        int firstChildIndex = getFirstChildIndex(parentIndex);
+        int maxIndex = getMaxIndex();
+        if (firstChildIndex > maxIndex) {
+            return;
+        }
+
+        int lastChildIndex = Math.min(firstChildIndex + arity - 1, maxIndex);
+        for (int childIndex = firstChildIndex; childIndex <= lastChildIndex; childIndex++) {
+            heapifySubtree(childIndex);
+        }
+        percolateElementDown(parentIndex);
+    }
+
+    // Heapify the children's subtrees in parallel, then percolate the parent
+    // down. Percolating only touches the parent's own subtree, so sibling tasks
+    // never write to the same slot. This is package-private, rather than living
+    // in HeapifyTask, because the Deuce agent drops the nestmate attributes that
+    // would let the task call this class's private methods.
+    void heapifyInParallel(int parentIndex) {
+        int maxIndex = getMaxIndex();
+        int firstChildIndex = getFirstChildIndex(parentIndex);
+        if (firstChildIndex > maxIndex) {
+            return;
+        }
+
+        // A subtree rooted at index i holds roughly n / (i + 1) elements.
+        if ((maxIndex + 1) / (parentIndex + 1) < PARALLEL_THRESHOLD) {
+            heapifySubtree(parentIndex);
+            return;
+        }
+
+        int lastChildIndex = Math.min(firstChildIndex + arity - 1, maxIndex);
+        List<HeapifyTask> childTasks = new ArrayList<HeapifyTask>(arity);
+        for (int childIndex = firstChildIndex; childIndex <= lastChildIndex; childIndex++) {
+            childTasks.add(new HeapifyTask(childIndex));
+        }
+        ForkJoinTask.invokeAll(childTasks);
+        percolateElementDown(parentIndex);
+    }
+
+    // Heapifies the subtree under one parent as part of a fork/join pool.
+    private class HeapifyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int parentIndex;
+
+        public HeapifyTask(int parentIndex) {
+            this.parentIndex = parentIndex;
+        }
+
+        @Override
+        protected void compute() {
+            heapifyInParallel(parentIndex);
+        }
     }
 
     // Get the maximum index currently occupied in the priority queue.
     private int getMaxIndex() {
-        return elements.size() - 1;
+        return slotCount - offset - 1;
     }
 
-    // Move an element up through the priority queue to its proper place.
+    // Move an element up through the priority queue to its proper place. The
+    // element is held aside while larger parents are shifted down into the
+    // hole, and it is written once when its position is found.
     private void percolateElementUp(int initialIndex) {
         int currentIndex = initialIndex;
-        int parentIndex = getParentIndex(currentIndex);
+        E currentElement = elements[offset + currentIndex];
 
-        // While the parent index of the current element is in bounds, if the
-        // parent element is larger than the current element: swap the two and
-        // repeat.
-        while (parentIndex >= 0) {
-            E parentElement = elements.get(parentIndex);
-            E currentElement = elements.get(currentIndex);
+        // While the current element has a parent, if the parent element is
+        // larger than the current element: move the parent down and repeat.
+        while (currentIndex > 0) {
+            int parentIndex = getParentIndex(currentIndex);
+            E parentElement = elements[offset + parentIndex];
 
             if (parentElement == null || currentElement == null) {
                 break;
             }
             else if (parentElement.compareTo(currentElement) > 0) {
-                Collections.swap(elements, parentIndex, currentIndex);
+                elements[offset + currentIndex] = parentElement;
                 currentIndex = parentIndex;
-                parentIndex = getParentIndex(currentIndex);
             }
             else {
                 break;
             }
         }
+
+        elements[offset + currentIndex] = currentElement;
     }
 
-    // Move an element down through the priority queue to its proper place.
+    // Move an element down through the priority queue to its proper place. The
+    // element is held aside while the smallest child is shifted up into the
+    // hole, and it is written once when its position is found.
     private void percolateElementDown(int initialIndex) {
         int currentIndex = initialIndex;
-        int leftChildIndex = getLeftChildIndex(currentIndex);
-        int rightChildIndex = getRightChildIndex(currentIndex);
-
-        while (leftChildIndex <= (getMaxIndex())) {
-
-            // Load the left child and current element. Attempt to load the
-            // right child as well. If it does not exist, swap the current
-            // element with the left child (if the left child is larger).
-            E currentElement = elements.get(currentIndex);
-            E leftChildElement = elements.get(leftChildIndex);
-            E rightChildElement;
-            try {
-                rightChildElement = elements.get(rightChildIndex);
-            }
-            catch (IndexOutOfBoundsException exception) {
-                if (leftChildElement.compareTo(currentElement) < 0) {
-                    Collections.swap(elements, currentIndex, leftChildIndex);
+        int maxIndex = getMaxIndex();
+        E currentElement = elements[offset + currentIndex];
+        int firstChildIndex = getFirstChildIndex(currentIndex);
+
+        while (firstChildIndex <= maxIndex) {
+
+            // Find the smallest of this parent's children.
+            int lastChildIndex = Math.min(firstChildIndex + arity - 1, maxIndex);
+            int smallestChildIndex = firstChildIndex;
+            E smallestChildElement = elements[offset + firstChildIndex];
+            for (int childIndex = firstChildIndex + 1; childIndex <= lastChildIndex; childIndex++) {
+                E childElement = elements[offset + childIndex];
+                if (childElement.compareTo(smallestChildElement) < 0) {
+                    smallestChildIndex = childIndex;
+                    smallestChildElement = childElement;
                 }
-                break;
             }
 
-            // Swap with the larger of the two children if the child is larger
-            // than the current element.
-            if (leftChildElement.compareTo(rightChildElement) < 0) {
-                if (leftChildElement.compareTo(currentElement) < 0) {
-                    Collections.swap(elements, currentIndex, leftChildIndex);
-                    currentIndex = leftChildIndex;
-                }
-                else {
-                    break;
-                }
+            // Move the smallest child up if it is smaller than the current
+            // element, otherwise the current element belongs here.
+            if (smallestChildElement.compareTo(currentElement) < 0) {
+                elements[offset + currentIndex] = smallestChildElement;
+                currentIndex = smallestChildIndex;
+                firstChildIndex = getFirstChildIndex(currentIndex);
             }
             else {
-                if (rightChildElement.compareTo(currentElement) < 0) {
-                    Collections.swap(elements, currentIndex, rightChildIndex);
-                    currentIndex = rightChildIndex;
-                }
-                else {
-                    break;
-                }
+                break;
             }
-
-            leftChildIndex = getLeftChildIndex(currentIndex);
-            rightChildIndex = getRightChildIndex(currentIndex);
         }
+
+        elements[offset + currentIndex] = currentElement;
     }
 }
@@ -0,0 +1,116 @@
+// A priority queue for many producers and exactly one consumer.
+
+package prioritetsko;
+
+import java.lang.Comparable;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Provides a priority queue where producers never compare, lock or touch the
+// heap. An insertion links a node onto a lock-free multi-producer,
+// single-consumer list (Vyukov's intrusive queue) with a single atomic swap of
+// the tail. Before each retrieval, the consumer drains whatever has been linked
+// so far into a private sequential heap in one bulk insert, so the heap is only
+// ever touched by one thread and stays in that thread's cache. The first
+// thread to retrieve becomes the consumer; any other thread that tries is
+// refused.
+public class SingleConsumerPriorityQueue
+    <E extends Comparable<E>>
+    implements PriorityQueue<E> {
+
+    private final AtomicReference<Node<E>> tail;
+    private final AtomicReference<Thread> consumer;
+
+    // Only touched by the consumer.
+    private Node<E> head;
+    private final SequentialPriorityQueue<E> heap;
+    private final ArrayList<E> batch;
+
+    // Create a new, empty priority queue.
+    public SingleConsumerPriorityQueue() {
+        head = new Node<E>(null);
+        tail = new AtomicReference<Node<E>>(head);
+        consumer = new AtomicReference<Thread>();
+        heap = new SequentialPriorityQueue<E>();
+        batch = new ArrayList<E>();
+    }
+
+    @Override
+    // Add an element to the priority queue. Safe from any number of threads.
+    public void insert(E element) {
+        Node<E> node = new Node<E>(element);
+        Node<E> previous = tail.getAndSet(node);
+        previous.next = node;
+    }
+
+    @Override
+    // Get and remove the element at the front of the priority queue. Only the
+    // consumer thread may call this.
+    public E retrieve() throws EmptyQueueException {
+        checkConsumer();
+        drain();
+
+        return heap.retrieve();
+    }
+
+    // Check if the priority queue is empty. Only the consumer thread may call
+    // this.
+    public boolean isEmpty() {
+        checkConsumer();
+        drain();
+
+        return heap.isEmpty();
+    }
+
+    @Override
+    // Only necessary to match the priority queue interface.
+    public void finish() {}
+
+    // Claim the queue for the calling thread the first time, and refuse every
+    // other thread after that.
+    private void checkConsumer() {
+        Thread currentThread = Thread.currentThread();
+        if (consumer.get() != currentThread
+            && !consumer.compareAndSet(null, currentThread)) {
+
+            throw new IllegalStateException("The priority queue already has a consumer!");
+        }
+    }
+
+    // Move every linked element into the heap in one bulk insert. A producer
+    // that has swapped the tail but not yet linked its node leaves a gap; the
+    // drain stops there, unless the heap would otherwise look empty, in which
+    // case it waits the moment it takes for the link to appear.
+    private void drain() {
+        Node<E> current = head;
+        while (true) {
+            Node<E> next = current.next;
+            if (next == null) {
+                if (current == tail.get() || !heap.isEmpty() || !batch.isEmpty()) {
+                    break;
+                }
+                Thread.onSpinWait();
+                continue;
+            }
+            batch.add(next.element);
+            next.element = null;
+            current = next;
+        }
+        head = current;
+
+        if (!batch.isEmpty()) {
+            heap.insert(batch);
+            batch.clear();
+        }
+    }
+
+    // A link in the producer list.
+    private static final class Node<E> {
+        E element;
+        volatile Node<E> next;
+
+        Node(E element) {
+            this.element = element;
+        }
+    }
+}
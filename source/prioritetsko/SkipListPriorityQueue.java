@@ -0,0 +1,271 @@
+// A lock-free priority queue built on a skiplist.
+
+package prioritetsko;
+
+import java.lang.Comparable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+
+// Provides a lock-free priority queue in the style of Lotan and Shavit, with
+// the batched cleanup of Linden and Jonsson. Elements are kept in a lock-free
+// skiplist. A retrieval walks the bottom level and claims the first node that
+// is not yet deleted by setting its deleted flag; that is the logical deletion.
+// Claimed nodes are only unlinked once the deleted prefix grows past a bound,
+// so retrievals rarely contend on the skiplist pointers near the head.
+public class SkipListPriorityQueue
+    <E extends Comparable<E>>
+    implements PriorityQueue<E> {
+
+    private static final int MAX_LEVEL = 24;
+    private static final int DEFAULT_CLEANUP_BOUND = 32;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static final ThreadLocal<long[]> threadSequence = ThreadLocal.withInitial(
+        () -> new long[] {threadCounter.getAndIncrement() & 0xFFFFF}
+    );
+
+    private final Node<E> head;
+    private final Node<E> tail;
+    private final int cleanupBound;
+    private final AtomicBoolean cleaning;
+
+    // Create a new, empty priority queue.
+    public SkipListPriorityQueue() {
+        this(DEFAULT_CLEANUP_BOUND);
+    }
+
+    // Create a new, empty priority queue that unlinks deleted nodes once at
+    // least cleanupBound of them lead the list.
+    public SkipListPriorityQueue(int cleanupBound) {
+        if (cleanupBound < 1) {
+            throw new IllegalArgumentException("The cleanup bound must be positive.");
+        }
+        this.cleanupBound = cleanupBound;
+        this.cleaning = new AtomicBoolean();
+
+        tail = new Node<E>(null, 0, MAX_LEVEL, null);
+        head = new Node<E>(null, 0, MAX_LEVEL, tail);
+    }
+
+    @Override
+    // Add an element to the priority queue.
+    public void insert(E element) {
+        Node<E> newNode = new Node<E>(element, nextSequence(), randomLevel(), null);
+
+        @SuppressWarnings("unchecked")
+        Node<E>[] predecessors = (Node<E>[]) new Node<?>[MAX_LEVEL + 1];
+        @SuppressWarnings("unchecked")
+        Node<E>[] successors = (Node<E>[]) new Node<?>[MAX_LEVEL + 1];
+
+        // Link the bottom level first; that is when the element becomes visible.
+        while (true) {
+            find(newNode, predecessors, successors);
+            for (int level = 0; level <= newNode.topLevel; level++) {
+                newNode.next[level].set(successors[level], false);
+            }
+            if (predecessors[0].next[0].compareAndSet(successors[0], newNode, false, false)) {
+                break;
+            }
+        }
+
+        // Link the upper levels, refreshing the search whenever a CAS fails.
+        for (int level = 1; level <= newNode.topLevel; level++) {
+            while (true) {
+                Node<E> successor = successors[level];
+                boolean[] marked = {false};
+                Node<E> currentSuccessor = newNode.next[level].get(marked);
+
+                // A concurrent cleanup is already unlinking the new node.
+                if (marked[0]) {
+                    return;
+                }
+                if (currentSuccessor != successor
+                    && !newNode.next[level].compareAndSet(currentSuccessor, successor, false, false)) {
+                    return;
+                }
+                if (predecessors[level].next[level].compareAndSet(successor, newNode, false, false)) {
+                    break;
+                }
+                find(newNode, predecessors, successors);
+            }
+        }
+    }
+
+    @Override
+    // Get and remove the element at the front of the priority queue.
+    public E retrieve() throws EmptyQueueException {
+        int deletedPrefix = 0;
+        Node<E> current = head.next[0].getReference();
+
+        // Claim the first node that nobody else has claimed.
+        while (current != tail) {
+            if (!current.deleted.get() && current.deleted.compareAndSet(false, true)) {
+                if (deletedPrefix >= cleanupBound) {
+                    cleanup();
+                }
+                return current.value;
+            }
+            deletedPrefix++;
+            current = current.next[0].getReference();
+        }
+
+        throw new EmptyQueueException("The priority queue is empty!");
+    }
+
+    // Check if the priority queue has no unclaimed elements.
+    public boolean isEmpty() {
+        for (Node<E> current = head.next[0].getReference();
+             current != tail;
+             current = current.next[0].getReference()) {
+
+            if (!current.deleted.get()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    // Only necessary to match the priority queue interface.
+    public void finish() {}
+
+    // Unlink the run of claimed nodes at the front of the list. Only one thread
+    // cleans at a time; everybody else just skips the prefix.
+    private void cleanup() {
+        if (!cleaning.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            @SuppressWarnings("unchecked")
+            Node<E>[] predecessors = (Node<E>[]) new Node<?>[MAX_LEVEL + 1];
+            @SuppressWarnings("unchecked")
+            Node<E>[] successors = (Node<E>[]) new Node<?>[MAX_LEVEL + 1];
+
+            Node<E> current = head.next[0].getReference();
+            while (current != tail && current.deleted.get()) {
+                Node<E> next = current.next[0].getReference();
+                unlink(current, predecessors, successors);
+                current = next;
+            }
+        }
+        finally {
+            cleaning.set(false);
+        }
+    }
+
+    // Mark every level of a node, top down, then let find() snip it out.
+    private void unlink(Node<E> node, Node<E>[] predecessors, Node<E>[] successors) {
+        boolean[] marked = {false};
+
+        for (int level = node.topLevel; level >= 1; level--) {
+            Node<E> successor = node.next[level].get(marked);
+            while (!marked[0]) {
+                node.next[level].attemptMark(successor, true);
+                successor = node.next[level].get(marked);
+            }
+        }
+
+        Node<E> successor = node.next[0].get(marked);
+        while (!marked[0]) {
+            if (node.next[0].compareAndSet(successor, successor, false, true)) {
+                find(node, predecessors, successors);
+                return;
+            }
+            successor = node.next[0].get(marked);
+        }
+    }
+
+    // Find the predecessors and successors of a key on every level, snipping
+    // out marked nodes along the way.
+    private void find(Node<E> key, Node<E>[] predecessors, Node<E>[] successors) {
+        boolean[] marked = {false};
+
+        retry:
+        while (true) {
+            Node<E> predecessor = head;
+            for (int level = MAX_LEVEL; level >= 0; level--) {
+                Node<E> current = predecessor.next[level].getReference();
+                while (true) {
+                    Node<E> successor = current.next[level].get(marked);
+                    while (marked[0]) {
+                        if (!predecessor.next[level].compareAndSet(current, successor, false, false)) {
+                            continue retry;
+                        }
+                        current = predecessor.next[level].getReference();
+                        successor = current.next[level].get(marked);
+                    }
+
+                    if (precedes(current, key)) {
+                        predecessor = current;
+                        current = successor;
+                    }
+                    else {
+                        break;
+                    }
+                }
+                predecessors[level] = predecessor;
+                successors[level] = current;
+            }
+
+            return;
+        }
+    }
+
+    // Check if a node in the list sorts strictly before a key node. The key is
+    // never a sentinel, and the head is never reached as a current node.
+    private boolean precedes(Node<E> node, Node<E> key) {
+        if (node == tail) {
+            return false;
+        }
+
+        int comparison = node.value.compareTo(key.value);
+        if (comparison != 0) {
+            return comparison < 0;
+        }
+
+        return node.sequence < key.sequence;
+    }
+
+    // Get a sequence number unique to this insertion, used to break ties
+    // between equal elements without a shared counter.
+    private static long nextSequence() {
+        long[] sequence = threadSequence.get();
+        long next = sequence[0];
+        sequence[0] = next + (1L << 20);
+
+        return next;
+    }
+
+    // Pick a level with a geometric distribution.
+    private static int randomLevel() {
+        int random = ThreadLocalRandom.current().nextInt();
+        int level = Integer.numberOfTrailingZeros(random | (1 << MAX_LEVEL));
+
+        return Math.min(level, MAX_LEVEL);
+    }
+
+    // A skiplist node. The head and tail sentinels have no value.
+    private static final class Node<E extends Comparable<E>> {
+        final E value;
+        final long sequence;
+        final int topLevel;
+        final AtomicBoolean deleted;
+        final AtomicMarkableReference<Node<E>>[] next;
+
+        @SuppressWarnings("unchecked")
+        Node(E value, long sequence, int topLevel, Node<E> successor) {
+            this.value = value;
+            this.sequence = sequence;
+            this.topLevel = topLevel;
+            this.deleted = new AtomicBoolean();
+            this.next = (AtomicMarkableReference<Node<E>>[]) new AtomicMarkableReference<?>[topLevel + 1];
+            for (int level = 0; level <= topLevel; level++) {
+                next[level] = new AtomicMarkableReference<Node<E>>(successor, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+// A priority queue that serves its reads optimistically under a stamped lock.
+
+package prioritetsko;
+
+import java.util.List;
+import java.lang.Comparable;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.StampedLock;
+
+// Provides a priority queue for read-heavy use, such as monitoring threads that
+// poll the front and size. Every write takes the write lock, just like the
+// synchronized priority queue takes its monitor. The peek, isEmpty and size
+// operations instead read the heap without locking and then validate the stamp;
+// if a write happened in between, the result (or any exception the torn read
+// caused) is thrown away and the read is repeated under the read lock. Readers
+// therefore never block writers unless a write actually raced with them.
+public class StampedPriorityQueue
+    <E extends Comparable<E>>
+    extends SequentialPriorityQueue<E> {
+
+    private final StampedLock lock;
+
+    // Create a new, empty priority queue.
+    public StampedPriorityQueue() {
+        super();
+        lock = new StampedLock();
+    }
+
+    // Create a new, empty priority queue where each parent has arity children.
+    public StampedPriorityQueue(int arity) {
+        super(arity);
+        lock = new StampedLock();
+    }
+
+    // Create a new, empty priority queue with a given arity and layout.
+    public StampedPriorityQueue(int arity, boolean aligned) {
+        super(arity, aligned);
+        lock = new StampedLock();
+    }
+
+    @Override
+    // Add an element to the priority queue.
+    public void insert(E element) {
+        long stamp = lock.writeLock();
+        try {
+            super.insert(element);
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    // Add a collection of elements to the priority queue.
+    public void insert(Collection<? extends E> collection) {
+        long stamp = lock.writeLock();
+        try {
+            super.insert(collection);
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    // Add a collection of elements in parallel while holding the write lock once.
+    public void insertParallel(Collection<? extends E> collection, ForkJoinPool pool) {
+        long stamp = lock.writeLock();
+        try {
+            super.insertParallel(collection, pool);
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    // Get and remove the element at the front of the priority queue.
+    public E retrieve() throws EmptyQueueException {
+        long stamp = lock.writeLock();
+        try {
+            return super.retrieve();
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    // Get and remove up to count elements while holding the write lock once.
+    public List<E> retrieve(int count) throws EmptyQueueException {
+        long stamp = lock.writeLock();
+        try {
+            return super.retrieve(count);
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    // Move up to maxElements elements into a collection while holding the
+    // write lock once.
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        long stamp = lock.writeLock();
+        try {
+            return super.drainTo(collection, maxElements);
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    // Get and remove every element in priority order while holding the write
+    // lock once.
+    public List<E> drainSorted() {
+        long stamp = lock.writeLock();
+        try {
+            return super.drainSorted();
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    // Get the element at the front of the priority queue, optimistically.
+    public E peek() throws EmptyQueueException {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                E element = super.peek();
+                if (lock.validate(stamp)) {
+                    return element;
+                }
+            }
+            catch (EmptyQueueException | RuntimeException exception) {
+                if (lock.validate(stamp) && exception instanceof EmptyQueueException) {
+                    throw (EmptyQueueException) exception;
+                }
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return super.peek();
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    // Check if the priority queue is empty, optimistically.
+    public boolean isEmpty() {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            boolean empty = super.isEmpty();
+            if (lock.validate(stamp)) {
+                return empty;
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return super.isEmpty();
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    // Get a string representation of this priority queue.
+    public String toString() {
+        long stamp = lock.readLock();
+        try {
+            return super.toString();
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    // Clear out the priority queue.
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            super.clear();
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    // Get the size of the priority queue, optimistically.
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            int size = super.size();
+            if (lock.validate(stamp)) {
+                return size;
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return super.size();
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
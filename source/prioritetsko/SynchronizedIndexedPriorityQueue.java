@@ -0,0 +1,83 @@
+// A synchronized (coarse-grained locking) indexed priority queue.
+
+package prioritetsko;
+
+import java.lang.Comparable;
+
+// Provides a synchronized priority queue with handles for decrease-key and
+// removal.
+public class SynchronizedIndexedPriorityQueue
+    <E extends Comparable<E>>
+    extends IndexedPriorityQueue<E> {
+
+    // Create a new, empty synchronized priority queue.
+    public SynchronizedIndexedPriorityQueue() {
+        super();
+    }
+
+    @Override
+    // Add an element to the synchronized priority queue.
+    public synchronized void insert(E element) {
+        super.insert(element);
+    }
+
+    @Override
+    // Add an element to the synchronized priority queue and get a handle to it.
+    public synchronized Handle<E> insertHandle(E element) {
+        return super.insertHandle(element);
+    }
+
+    @Override
+    // Get and remove the element at the front of the synchronized priority queue.
+    public synchronized E retrieve() throws EmptyQueueException {
+        return super.retrieve();
+    }
+
+    @Override
+    // Replace a queued element with a smaller or equal one and move it forward.
+    public synchronized void decreaseKey(Handle<E> handle, E element) {
+        super.decreaseKey(handle, element);
+    }
+
+    @Override
+    // Remove a queued element, wherever it is in the heap.
+    public synchronized E remove(Handle<E> handle) {
+        return super.remove(handle);
+    }
+
+    @Override
+    // Check if a handle's element is still in the synchronized priority queue.
+    public synchronized boolean contains(Handle<E> handle) {
+        return super.contains(handle);
+    }
+
+    @Override
+    // Get the element at the front of the synchronized priority queue.
+    public synchronized E peek() throws EmptyQueueException {
+        return super.peek();
+    }
+
+    @Override
+    // Check if the synchronized priority queue is empty.
+    public synchronized boolean isEmpty() {
+        return super.isEmpty();
+    }
+
+    @Override
+    // Get a string representation of this synchronized priority queue.
+    public synchronized String toString() {
+        return super.toString();
+    }
+
+    @Override
+    // Clear out the synchronized priority queue.
+    public synchronized void clear() {
+        super.clear();
+    }
+
+    @Override
+    // Get the size of the synchronized priority queue.
+    public synchronized int size() {
+        return super.size();
+    }
+}
@@ -0,0 +1,70 @@
+// A synchronized (coarse-grained locking) priority queue of primitive int keys.
+
+package prioritetsko;
+
+// Provides a synchronized priority queue of int keys.
+public class SynchronizedIntPriorityQueue extends SequentialIntPriorityQueue {
+
+    // Create a new, empty synchronized priority queue.
+    public SynchronizedIntPriorityQueue() {
+        super();
+    }
+
+    // Create a new, empty synchronized priority queue with room for some elements.
+    public SynchronizedIntPriorityQueue(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    // Create a new synchronized priority queue with an array of elements.
+    public SynchronizedIntPriorityQueue(int[] array) {
+        super(array);
+    }
+
+    @Override
+    // Add an element to the synchronized priority queue.
+    public synchronized void insert(int element) {
+        super.insert(element);
+    }
+
+    @Override
+    // Add an array of elements to the synchronized priority queue.
+    public synchronized void insert(int[] array) {
+        super.insert(array);
+    }
+
+    @Override
+    // Get and remove the element at the front of the synchronized priority queue.
+    public synchronized int retrieve() throws EmptyQueueException {
+        return super.retrieve();
+    }
+
+    @Override
+    // Get the element at the front of the synchronized priority queue.
+    public synchronized int peek() throws EmptyQueueException {
+        return super.peek();
+    }
+
+    @Override
+    // Check if the synchronized priority queue is empty.
+    public synchronized boolean isEmpty() {
+        return super.isEmpty();
+    }
+
+    @Override
+    // Get a string representation of this synchronized priority queue.
+    public synchronized String toString() {
+        return super.toString();
+    }
+
+    @Override
+    // Clear out the synchronized priority queue.
+    public synchronized void clear() {
+        super.clear();
+    }
+
+    @Override
+    // Get the size of the priority queue.
+    public synchronized int size() {
+        return super.size();
+    }
+}
@@ -3,59 +3,172 @@
 
 package prioritetsko;
 
+import java.util.List;
 import java.lang.Comparable;
 import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
 
-// Provides a synchronized, generic priority queue.
+// Provides a synchronized, generic priority queue. When metrics are set, every
+// operation reports how long it waited for the monitor.
 public class SynchronizedPriorityQueue
     <E extends Comparable<E>>
     extends SequentialPriorityQueue<E> {
 
+    private volatile QueueMetrics metrics = QueueMetrics.NONE;
+
+    // Create a new, empty synchronized priority queue.
+    public SynchronizedPriorityQueue() {
+        super();
+    }
+
+    // Create a new, empty synchronized priority queue where each parent has arity children.
+    public SynchronizedPriorityQueue(int arity) {
+        super(arity);
+    }
+
+    // Create a new, empty synchronized priority queue with a given arity and layout.
+    public SynchronizedPriorityQueue(int arity, boolean aligned) {
+        super(arity, aligned);
+    }
+
     @Override
     // Add an element to the synchronized priority queue.
-    public synchronized void insert(E element) {
-        super.insert(element);
+    public void insert(E element) {
+        long requestTime = startWaiting();
+        synchronized (this) {
+            stopWaiting(requestTime);
+            super.insert(element);
+        }
     }
 
     @Override
     // Add a collection of elements to the synchronized priority queue.
-    public synchronized void insert(Collection<? extends E> collection) {
-        super.insert(collection);
+    public void insert(Collection<? extends E> collection) {
+        long requestTime = startWaiting();
+        synchronized (this) {
+            stopWaiting(requestTime);
+            super.insert(collection);
+        }
+    }
+
+    @Override
+    // Add a collection of elements in parallel while holding the lock once.
+    public void insertParallel(
+        Collection<? extends E> collection,
+        ForkJoinPool pool) {
+
+        long requestTime = startWaiting();
+        synchronized (this) {
+            stopWaiting(requestTime);
+            super.insertParallel(collection, pool);
+        }
     }
 
     @Override
     // Get and remove the element at the front of the synchronized priority queue.
-    public synchronized E retrieve() throws EmptyQueueException {
-        return super.retrieve();
+    public E retrieve() throws EmptyQueueException  {
+        long requestTime = startWaiting();
+        synchronized (this) {
+            stopWaiting(requestTime);
+            return super.retrieve();
+        }
+    }
+
+    @Override
+    // Get and remove up to count elements from the synchronized priority queue
+    // while holding the lock once.
+    public List<E> retrieve(int count) throws EmptyQueueException  {
+        long requestTime = startWaiting();
+        synchronized (this) {
+            stopWaiting(requestTime);
+            return super.retrieve(count);
+        }
+    }
+
+    @Override
+    // Move up to maxElements elements into a collection while holding the lock once.
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        long requestTime = startWaiting();
+        synchronized (this) {
+            stopWaiting(requestTime);
+            return super.drainTo(collection, maxElements);
+        }
+    }
+
+    @Override
+    // Get and remove every element in priority order while holding the lock once.
+    public List<E> drainSorted() {
+        long requestTime = startWaiting();
+        synchronized (this) {
+            stopWaiting(requestTime);
+            return super.drainSorted();
+        }
     }
 
     @Override
     // Get the element at the front of the synchronized priority queue.
-    public synchronized E peek() throws EmptyQueueException {
-        return super.peek();
+    public E peek() throws EmptyQueueException  {
+        long requestTime = startWaiting();
+        synchronized (this) {
+            stopWaiting(requestTime);
+            return super.peek();
+        }
     }
 
     @Override
     // Check if the synchronized priority queue is empty.
-    public synchronized boolean isEmpty() {
-        return super.isEmpty();
+    public boolean isEmpty() {
+        long requestTime = startWaiting();
+        synchronized (this) {
+            stopWaiting(requestTime);
+            return super.isEmpty();
+        }
     }
 
     @Override
     // Get a string representation of this synchronized priority queue.
-    public synchronized String toString() {
-        return super.toString();
+    public String toString() {
+        long requestTime = startWaiting();
+        synchronized (this) {
+            stopWaiting(requestTime);
+            return super.toString();
+        }
     }
 
     @Override
     // Clear out the synchronized priority queue.
-    public synchronized void clear() {
-        super.clear();
+    public void clear() {
+        long requestTime = startWaiting();
+        synchronized (this) {
+            stopWaiting(requestTime);
+            super.clear();
+        }
     }
 
     @Override
     // Get the size of the priority queue.
-    public synchronized int size() {
-        return super.size();
+    public int size() {
+        long requestTime = startWaiting();
+        synchronized (this) {
+            stopWaiting(requestTime);
+            return super.size();
+        }
+    }
+
+    // Report monitor contention to the given metrics.
+    public void setMetrics(QueueMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Note when this thread asked for the monitor, if anyone is listening.
+    private long startWaiting() {
+        return (metrics == QueueMetrics.NONE) ? 0 : System.nanoTime();
+    }
+
+    // Report how long this thread waited for the monitor.
+    private void stopWaiting(long requestTime) {
+        if (requestTime != 0) {
+            metrics.onContention(System.nanoTime() - requestTime);
+        }
     }
 }
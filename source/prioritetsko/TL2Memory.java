@@ -0,0 +1,318 @@
+// A small word-based software transactional memory in the style of TL2.
+
+package prioritetsko;
+
+import java.util.Arrays;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Provides transactional access to a fixed block of int words followed by a
+// growable run of reference words, without any bytecode instrumentation. Every
+// word has a versioned lock (version << 1 | locked) and a global clock orders
+// commits, as in Transactional Locking II by Dice, Shalev and Shavit:
+//   - a transaction samples the clock when it begins,
+//   - each read checks that its word is unlocked and no newer than that sample,
+//     so a transaction never sees an inconsistent snapshot,
+//   - writes are buffered and published at commit by locking the written words,
+//     advancing the clock, revalidating the reads and releasing the locks with
+//     the new version.
+// Each thread reuses one transaction descriptor, so a transaction allocates
+// nothing once its buffers have grown to fit.
+//
+// The reference words are kept in segments that double in size, segment k
+// holding words 2^k - 1 through 2^(k+1) - 2, and a segment is only allocated
+// when a commit first writes one of its words. A word in a missing segment
+// reads as null at version 0, so the memory costs what has been written rather
+// than what might be, and growing it never moves a word another thread is using.
+//
+// The fields and helpers the transaction uses are package-private because the
+// Deuce agent drops the nestmate attributes of the classes it transforms, which
+// would make private access from the inner class fail with IllegalAccessError.
+final class TL2Memory {
+    private static final int INITIAL_SET_SIZE = 64;
+    private static final int SEGMENTS = 31;
+
+    final int intWords;
+    final int[] ints;
+    final AtomicLongArray intLocks;
+    final AtomicReferenceArray<Segment> segments;
+    final AtomicLong clock;
+    private final ThreadLocal<Transaction> transactions;
+
+    // Create a memory of intWords int words and as many reference words as
+    // transactions write, up to Integer.MAX_VALUE - 1 of them.
+    public TL2Memory(int intWords) {
+        this.intWords = intWords;
+        ints = new int[intWords];
+        intLocks = new AtomicLongArray(intWords);
+        segments = new AtomicReferenceArray<Segment>(SEGMENTS);
+        clock = new AtomicLong();
+        transactions = ThreadLocal.withInitial(Transaction::new);
+    }
+
+    // Get the calling thread's transaction descriptor.
+    public Transaction transaction() {
+        return transactions.get();
+    }
+
+    // Thrown to unwind a transaction that has to start over. There is a single
+    // shared instance without a stack trace, so aborting allocates nothing.
+    static final class AbortException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        static final AbortException INSTANCE = new AbortException();
+
+        private AbortException() {
+            super("Transaction aborted", null, false, false);
+        }
+    }
+
+    // A block of reference words and their versioned locks.
+    static final class Segment {
+        final Object[] references;
+        final AtomicLongArray locks;
+
+        Segment(int length) {
+            references = new Object[length];
+            locks = new AtomicLongArray(length);
+        }
+    }
+
+    // Get the segment holding a reference word, or null if it was never written.
+    Segment segmentOf(int index) {
+        return segments.get(31 - Integer.numberOfLeadingZeros(index + 1));
+    }
+
+    // Get the segment holding a reference word, allocating it if need be.
+    Segment claimSegment(int index) {
+        int level = 31 - Integer.numberOfLeadingZeros(index + 1);
+        Segment segment = segments.get(level);
+        if (segment == null) {
+            segment = new Segment(1 << level);
+            if (!segments.compareAndSet(level, null, segment)) {
+                segment = segments.get(level);
+            }
+        }
+
+        return segment;
+    }
+
+    // Get the position of a reference word within its segment.
+    static int offsetOf(int index) {
+        return index + 1 - Integer.highestOneBit(index + 1);
+    }
+
+    // Get the versioned lock of a word, where a word in a missing segment is
+    // unlocked at version 0.
+    long lockOf(int word) {
+        if (word < intWords) {
+            return intLocks.get(word);
+        }
+
+        Segment segment = segmentOf(word - intWords);
+        return segment == null ? 0 : segment.locks.get(offsetOf(word - intWords));
+    }
+
+    // Try to lock a word held at the given version.
+    boolean tryLock(int word, long version) {
+        if (word < intWords) {
+            return intLocks.compareAndSet(word, version, version | 1);
+        }
+
+        int index = word - intWords;
+        return claimSegment(index).locks.compareAndSet(offsetOf(index), version, version | 1);
+    }
+
+    // Set the versioned lock of a word this thread has locked.
+    void setLock(int word, long version) {
+        if (word < intWords) {
+            intLocks.set(word, version);
+        }
+        else {
+            int index = word - intWords;
+            segmentOf(index).locks.set(offsetOf(index), version);
+        }
+    }
+
+    // A thread's transaction descriptor with its read and write sets.
+    final class Transaction {
+        private long readVersion;
+
+        private int readCount;
+        private int[] readSet = new int[INITIAL_SET_SIZE];
+
+        private int writeCount;
+        private int[] writeSet = new int[INITIAL_SET_SIZE];
+        private int[] writeInts = new int[INITIAL_SET_SIZE];
+        private Object[] writeReferences = new Object[INITIAL_SET_SIZE];
+        private long[] lockedVersions = new long[INITIAL_SET_SIZE];
+
+        // Start a new attempt, forgetting anything from the last one.
+        public void begin() {
+            readCount = 0;
+            Arrays.fill(writeReferences, 0, writeCount, null);
+            writeCount = 0;
+            readVersion = clock.get();
+        }
+
+        // Read an int word.
+        public int readInt(int index) {
+            int writeIndex = findWrite(index);
+            if (writeIndex >= 0) {
+                return writeInts[writeIndex];
+            }
+
+            long before = intLocks.get(index);
+            int value = ints[index];
+            VarHandle.loadLoadFence();
+            validateRead(index, before);
+
+            return value;
+        }
+
+        // Read a reference word.
+        @SuppressWarnings("unchecked")
+        public <T> T readReference(int index) {
+            int word = intWords + index;
+            int writeIndex = findWrite(word);
+            if (writeIndex >= 0) {
+                return (T) writeReferences[writeIndex];
+            }
+
+            Segment segment = segmentOf(index);
+            if (segment == null) {
+                validateRead(word, 0);
+                return null;
+            }
+
+            int offset = offsetOf(index);
+            long before = segment.locks.get(offset);
+            Object value = segment.references[offset];
+            VarHandle.loadLoadFence();
+            validateRead(word, before);
+
+            return (T) value;
+        }
+
+        // Buffer a write to an int word.
+        public void writeInt(int index, int value) {
+            writeInts[bufferWrite(index)] = value;
+        }
+
+        // Buffer a write to a reference word.
+        public void writeReference(int index, Object value) {
+            writeReferences[bufferWrite(intWords + index)] = value;
+        }
+
+        // Try to publish the buffered writes. Returns false if the transaction
+        // conflicted and has to start over.
+        public boolean commit() {
+            if (writeCount == 0) {
+                return true;
+            }
+
+            // Lock every written word, giving up at the first one held elsewhere.
+            for (int writeIndex = 0; writeIndex < writeCount; writeIndex++) {
+                int word = writeSet[writeIndex];
+                long version = lockOf(word);
+                if ((version & 1) != 0 || !tryLock(word, version)) {
+                    release(writeIndex);
+                    return false;
+                }
+                lockedVersions[writeIndex] = version;
+            }
+
+            long writeVersion = clock.incrementAndGet();
+
+            // Unless nobody committed since we began, make sure nothing we read
+            // has changed.
+            if (writeVersion != readVersion + 1) {
+                for (int readIndex = 0; readIndex < readCount; readIndex++) {
+                    int word = readSet[readIndex];
+                    long version = lockOf(word);
+                    if ((version & 1) != 0) {
+                        int writeIndex = findWrite(word);
+                        if (writeIndex < 0) {
+                            release(writeCount);
+                            return false;
+                        }
+                        version = lockedVersions[writeIndex];
+                    }
+                    if ((version >>> 1) > readVersion) {
+                        release(writeCount);
+                        return false;
+                    }
+                }
+            }
+
+            // Publish the values, then release each lock with the new version.
+            for (int writeIndex = 0; writeIndex < writeCount; writeIndex++) {
+                int word = writeSet[writeIndex];
+                if (word < intWords) {
+                    ints[word] = writeInts[writeIndex];
+                }
+                else {
+                    int index = word - intWords;
+                    segmentOf(index).references[offsetOf(index)] = writeReferences[writeIndex];
+                }
+            }
+            for (int writeIndex = 0; writeIndex < writeCount; writeIndex++) {
+                setLock(writeSet[writeIndex], writeVersion << 1);
+            }
+
+            return true;
+        }
+
+        // Check that a word read is consistent with the start of the transaction.
+        private void validateRead(int word, long before) {
+            long after = lockOf(word);
+            if ((before & 1) != 0 || before != after || (before >>> 1) > readVersion) {
+                throw AbortException.INSTANCE;
+            }
+
+            if (readCount == readSet.length) {
+                readSet = Arrays.copyOf(readSet, readCount * 2);
+            }
+            readSet[readCount++] = word;
+        }
+
+        // Find or add the write set entry for a word.
+        private int bufferWrite(int word) {
+            int writeIndex = findWrite(word);
+            if (writeIndex >= 0) {
+                return writeIndex;
+            }
+
+            if (writeCount == writeSet.length) {
+                int newSize = writeCount * 2;
+                writeSet = Arrays.copyOf(writeSet, newSize);
+                writeInts = Arrays.copyOf(writeInts, newSize);
+                writeReferences = Arrays.copyOf(writeReferences, newSize);
+                lockedVersions = Arrays.copyOf(lockedVersions, newSize);
+            }
+            writeSet[writeCount] = word;
+
+            return writeCount++;
+        }
+
+        // Find the write set entry for a word, or -1 if it has not been written.
+        private int findWrite(int word) {
+            for (int writeIndex = 0; writeIndex < writeCount; writeIndex++) {
+                if (writeSet[writeIndex] == word) {
+                    return writeIndex;
+                }
+            }
+
+            return -1;
+        }
+
+        // Unlock the first count written words, restoring their old versions.
+        private void release(int count) {
+            for (int writeIndex = 0; writeIndex < count; writeIndex++) {
+                setLock(writeSet[writeIndex], lockedVersions[writeIndex]);
+            }
+        }
+    }
+}
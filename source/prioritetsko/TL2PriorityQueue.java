@@ -0,0 +1,193 @@
+// A software transactional memory priority queue that needs no Java agent.
+
+package prioritetsko;
+
+import java.lang.Comparable;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Provides a transactional priority queue on top of TL2Memory instead of Deuce.
+// The heap is a flat array of reference words with the size in an int word,
+// and each operation reads and writes those words through a transaction,
+// starting over whenever it conflicts with a concurrent commit. Since nothing
+// is instrumented, this queue runs without -javaagent on any JDK, and unrelated
+// classes are left alone by the JIT. The memory grows as the heap does, so an
+// unbounded queue only pays for the elements it has held.
+public class TL2PriorityQueue
+    <E extends Comparable<E>>
+    implements PriorityQueue<E> {
+
+    // The most reference words TL2Memory can address.
+    private static final int DEFAULT_CAPACITY = Integer.MAX_VALUE - 1;
+    private static final int MIN_BACKOFF_SPINS = 16;
+    private static final int MAX_BACKOFF_SPINS = 1 << 14;
+
+    // The only int word.
+    private static final int SIZE = 0;
+
+    private final int capacity;
+    private final TL2Memory memory;
+    private final LongAdder aborts;
+    private volatile QueueMetrics metrics = QueueMetrics.NONE;
+
+    // Create a new, empty priority queue with no practical capacity limit.
+    public TL2PriorityQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // Create a new, empty priority queue that holds up to capacity elements.
+    public TL2PriorityQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive.");
+        }
+        this.capacity = capacity;
+        memory = new TL2Memory(1);
+        aborts = new LongAdder();
+    }
+
+    @Override
+    // Add an element to the priority queue.
+    public void insert(E element) {
+        TL2Memory.Transaction transaction = memory.transaction();
+        int backoff = MIN_BACKOFF_SPINS;
+
+        while (true) {
+            transaction.begin();
+            try {
+                int size = transaction.readInt(SIZE);
+                if (size == capacity) {
+                    throw new IllegalStateException("The priority queue is full!");
+                }
+
+                // Move the hole at the bottom up until the element fits.
+                int currentIndex = size;
+                while (currentIndex > 0) {
+                    int parentIndex = (currentIndex - 1) / 2;
+                    E parentElement = transaction.readReference(parentIndex);
+                    if (parentElement.compareTo(element) <= 0) {
+                        break;
+                    }
+                    transaction.writeReference(currentIndex, parentElement);
+                    currentIndex = parentIndex;
+                }
+                transaction.writeReference(currentIndex, element);
+                transaction.writeInt(SIZE, size + 1);
+
+                if (transaction.commit()) {
+                    return;
+                }
+            }
+            catch (TL2Memory.AbortException exception) {
+            }
+            backoff = backoff(backoff);
+        }
+    }
+
+    @Override
+    // Get and remove the element at the front of the priority queue.
+    public E retrieve() throws EmptyQueueException {
+        TL2Memory.Transaction transaction = memory.transaction();
+        int backoff = MIN_BACKOFF_SPINS;
+
+        while (true) {
+            transaction.begin();
+            try {
+                E retrievedElement = null;
+                int size = transaction.readInt(SIZE);
+                if (size > 0) {
+                    retrievedElement = transaction.readReference(0);
+                    int lastIndex = size - 1;
+                    E lastElement = transaction.readReference(lastIndex);
+                    transaction.writeReference(lastIndex, null);
+                    transaction.writeInt(SIZE, lastIndex);
+
+                    // Move the hole at the root down until the last element fits.
+                    int currentIndex = 0;
+                    while (currentIndex * 2 + 1 < lastIndex) {
+                        int childIndex = currentIndex * 2 + 1;
+                        E childElement = transaction.readReference(childIndex);
+                        if (childIndex + 1 < lastIndex) {
+                            E rightElement = transaction.readReference(childIndex + 1);
+                            if (rightElement.compareTo(childElement) < 0) {
+                                childIndex++;
+                                childElement = rightElement;
+                            }
+                        }
+                        if (lastElement.compareTo(childElement) <= 0) {
+                            break;
+                        }
+                        transaction.writeReference(currentIndex, childElement);
+                        currentIndex = childIndex;
+                    }
+                    if (lastIndex > 0) {
+                        transaction.writeReference(currentIndex, lastElement);
+                    }
+                }
+
+                if (transaction.commit()) {
+                    if (retrievedElement == null) {
+                        throw new EmptyQueueException("The priority queue is empty!");
+                    }
+                    return retrievedElement;
+                }
+            }
+            catch (TL2Memory.AbortException exception) {
+            }
+            backoff = backoff(backoff);
+        }
+    }
+
+    // Check if the priority queue is empty.
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Get the size of the priority queue.
+    public int size() {
+        TL2Memory.Transaction transaction = memory.transaction();
+        int backoff = MIN_BACKOFF_SPINS;
+
+        while (true) {
+            transaction.begin();
+            try {
+                return transaction.readInt(SIZE);
+            }
+            catch (TL2Memory.AbortException exception) {
+            }
+            backoff = backoff(backoff);
+        }
+    }
+
+    // Get the number of transactions that had to start over.
+    public long getAborts() {
+        return aborts.sum();
+    }
+
+    // Report transaction aborts to the given metrics.
+    public void setMetrics(QueueMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Count an abort and wait a random, growing number of spins before the next
+    // attempt, yielding once the backoff is at its limit. Returns the next limit.
+    private int backoff(int backoffSpins) {
+        aborts.increment();
+        metrics.onAbort();
+
+        if (backoffSpins == MAX_BACKOFF_SPINS) {
+            Thread.yield();
+            return backoffSpins;
+        }
+
+        int spins = ThreadLocalRandom.current().nextInt(backoffSpins);
+        for (int spin = 0; spin < spins; spin++) {
+            Thread.onSpinWait();
+        }
+
+        return Math.min(backoffSpins * 2, MAX_BACKOFF_SPINS);
+    }
+
+    @Override
+    // Only necessary to match the priority queue interface.
+    public void finish() {}
+}